@@ -0,0 +1,343 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * The rules of a match between many snakes on one board, without any user
+ * interface. All the snakes share the occupancy of a single Board, so a move
+ * into any body, whoever it belongs to, is found with one lookup. The snakes
+ * move at the same time; when two or more heads move into the same cell, the
+ * longest snake survives and the others die, or all of them if they are
+ * equally long. Those head-to-head collisions are found with a small open
+ * addressed hash table of the cells the heads move into, which is reused
+ * every tick, so a tick costs O(1) for each snake. Two snakes which swap
+ * their heads both die too, as they would pass through each other.
+ *
+ * There are several food slots on the board. The cells of the food are
+ * occupied on the board too, so that new food never lands on old food, and
+ * each cell keeps the slot of the food on it, to tell the food apart from
+ * the bodies and to empty the slot of an eaten food at once. A bit set keeps
+ * the slots to refill, so only the eaten food is replaced.
+ */
+public class Arena {
+
+	private final Board board;
+	private final SnakeBody[] bodies;
+	private final int[] directions;
+	private final boolean[] alive;
+	/* The cell each snake moves into in the current tick, or -1 */
+	private final int[] next;
+	private final boolean[] eats;
+	private final boolean[] swaps;
+	private final int[] food;
+	/* The slots whose food was eaten, or which found no free cell */
+	private final BitSet emptySlots;
+	/* The slot of the food on each cell, or -1 */
+	private final int[] foodSlots;
+	/* The snake whose head is on each cell while a tick starts, or -1 */
+	private final int[] heads;
+	private final Random random;
+	private int aliveCount;
+	private long tick;
+
+	/* The head-to-head table: the longest length moving into each cell */
+	private final int[] tableCells;
+	private final int[] tableLengths;
+	private final int[] tableCounts;
+	private final int[] tableStamps;
+	private final int tableMask;
+	private final int tableShift;
+	private int stamp;
+
+	/**
+	 * Create an arena with the snakes, one cell long, and the food placed at
+	 * random free cells.
+	 *
+	 * @param columns
+	 * @param rows
+	 * @param snakes
+	 *            the number of snakes
+	 * @param foodSlots
+	 *            the number of food on the board at the same time
+	 * @param seed
+	 */
+	public Arena(int columns, int rows, int snakes, int foodSlots, long seed) {
+		board = new Board(columns, rows);
+		if (snakes + foodSlots > board.getCellCount())
+			throw new IllegalArgumentException("Too many snakes and food for a "
+					+ columns + "x" + rows + " board");
+		bodies = new SnakeBody[snakes];
+		directions = new int[snakes];
+		alive = new boolean[snakes];
+		next = new int[snakes];
+		eats = new boolean[snakes];
+		swaps = new boolean[snakes];
+		food = new int[foodSlots];
+		emptySlots = new BitSet(foodSlots);
+		this.foodSlots = new int[board.getCellCount()];
+		Arrays.fill(this.foodSlots, -1);
+		heads = new int[board.getCellCount()];
+		Arrays.fill(heads, -1);
+		random = new Random(seed);
+
+		int tableSize = Integer.highestOneBit(Math.max(snakes, 1) * 4 - 1) << 1;
+		tableCells = new int[tableSize];
+		tableLengths = new int[tableSize];
+		tableCounts = new int[tableSize];
+		tableStamps = new int[tableSize];
+		tableMask = tableSize - 1;
+		tableShift = 32 - Integer.numberOfTrailingZeros(tableSize);
+
+		for (int i = 0; i < snakes; i++) {
+			bodies[i] = new SnakeBody(board.getCellCount());
+			respawn(i);
+		}
+		for (int slot = 0; slot < foodSlots; slot++)
+			placeFood(slot);
+	}
+
+	public Board getBoard() {
+		return board;
+	}
+
+	public int getSnakeCount() {
+		return bodies.length;
+	}
+
+	public int getAliveCount() {
+		return aliveCount;
+	}
+
+	public boolean isAlive(int snake) {
+		return alive[snake];
+	}
+
+	public SnakeBody getBody(int snake) {
+		return bodies[snake];
+	}
+
+	public int getDirection(int snake) {
+		return directions[snake];
+	}
+
+	public int getScore(int snake) {
+		return bodies[snake].size() - 1;
+	}
+
+	public int getFoodSlots() {
+		return food.length;
+	}
+
+	/**
+	 * The cell of the food in the slot, or -1 if there was no free cell for
+	 * it.
+	 */
+	public int getFood(int slot) {
+		return food[slot];
+	}
+
+	public boolean isFood(int cell) {
+		return cell >= 0 && foodSlots[cell] >= 0;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public boolean isOver() {
+		return aliveCount <= 1 && bodies.length > 1 || aliveCount == 0;
+	}
+
+	/**
+	 * Get the cell next to the head of the snake in the given direction.
+	 *
+	 * @return the cell index, or -1 if it is outside of the board
+	 */
+	public int nextCell(int snake, int direction) {
+		int head = bodies[snake].getHead();
+		int column = board.columnOf(head) + Simulation.dx(direction);
+		int row = board.rowOf(head) + Simulation.dy(direction);
+		if (!board.isInside(column, row))
+			return -1;
+		return board.cellAt(column, row);
+	}
+
+	/**
+	 * Whether moving into the cell kills a snake, not counting the heads of
+	 * the other snakes moving at the same time.
+	 */
+	public boolean isDead(int cell) {
+		return cell < 0 || board.isOccupied(cell) && foodSlots[cell] < 0;
+	}
+
+	/**
+	 * Advance the match by one tick. Each living snake turns to its new
+	 * direction unless it is NONE or the reverse of its current direction,
+	 * then all of them move at the same time.
+	 *
+	 * @param newDirections
+	 *            a direction for each snake; the ones of dead snakes are
+	 *            ignored
+	 * @return the number of snakes which died in this tick
+	 */
+	public int step(int[] newDirections) {
+		tick++;
+		int snakes = bodies.length;
+		for (int i = 0; i < snakes; i++) {
+			if (!alive[i])
+				continue;
+			int direction = newDirections[i];
+			if (direction != Simulation.NONE
+					&& (direction != Simulation.reverse(directions[i]) || bodies[i]
+							.size() == 1))
+				directions[i] = direction;
+			next[i] = nextCell(i, directions[i]);
+			eats[i] = isFood(next[i]);
+		}
+		findSwaps();
+
+		/* The tails move first, so a head may follow any tail closely */
+		for (int i = 0; i < snakes; i++)
+			if (alive[i] && !eats[i])
+				board.release(bodies[i].removeTail());
+
+		stamp++;
+		for (int i = 0; i < snakes; i++)
+			if (alive[i] && next[i] >= 0)
+				enterHead(next[i], bodies[i].size() + 1);
+
+		int deaths = 0;
+		for (int i = 0; i < snakes; i++) {
+			if (!alive[i])
+				continue;
+			int cell = next[i];
+			if (swaps[i] || isDead(cell) || loses(cell, bodies[i].size() + 1)) {
+				alive[i] = false;
+				deaths++;
+			}
+		}
+
+		for (int i = 0; i < snakes; i++) {
+			if (!alive[i])
+				continue;
+			int cell = next[i];
+			if (eats[i]) {
+				int slot = foodSlots[cell];
+				foodSlots[cell] = -1;
+				food[slot] = -1;
+				emptySlots.set(slot);
+			} else {
+				board.occupy(cell);
+			}
+			bodies[i].addHead(cell);
+		}
+
+		if (deaths > 0) {
+			for (int i = 0; i < snakes; i++) {
+				if (alive[i] || bodies[i].isEmpty())
+					continue;
+				SnakeBody body = bodies[i];
+				while (!body.isEmpty())
+					board.release(body.removeTail());
+			}
+			aliveCount -= deaths;
+		}
+
+		for (int slot = emptySlots.nextSetBit(0); slot >= 0; slot = emptySlots
+				.nextSetBit(slot + 1))
+			placeFood(slot);
+		return deaths;
+	}
+
+	/**
+	 * Bring a dead snake back, one cell long, at a random free cell.
+	 *
+	 * @param snake
+	 * @return false if the snake is alive or there is no free cell
+	 */
+	public boolean respawn(int snake) {
+		if (alive[snake])
+			return false;
+		int cell = randomFreeCell();
+		if (cell < 0)
+			return false;
+		board.occupy(cell);
+		bodies[snake].addHead(cell);
+		directions[snake] = random.nextInt(4);
+		alive[snake] = true;
+		aliveCount++;
+		return true;
+	}
+
+	/*
+	 * Mark the snakes which move into the head of another snake while that
+	 * one moves into theirs. Without it, two snakes one cell long would swap
+	 * their cells, as both tails move away first.
+	 */
+	private void findSwaps() {
+		int snakes = bodies.length;
+		for (int i = 0; i < snakes; i++)
+			if (alive[i])
+				heads[bodies[i].getHead()] = i;
+		for (int i = 0; i < snakes; i++) {
+			swaps[i] = false;
+			if (!alive[i] || next[i] < 0)
+				continue;
+			int other = heads[next[i]];
+			swaps[i] = other >= 0 && other != i
+					&& next[other] == bodies[i].getHead();
+		}
+		for (int i = 0; i < snakes; i++)
+			if (alive[i])
+				heads[bodies[i].getHead()] = -1;
+	}
+
+	/* Record a head of the given length moving into the cell */
+	private void enterHead(int cell, int length) {
+		int slot = slotOf(cell);
+		if (tableStamps[slot] != stamp) {
+			tableStamps[slot] = stamp;
+			tableCells[slot] = cell;
+			tableLengths[slot] = length;
+			tableCounts[slot] = 1;
+		} else if (length > tableLengths[slot]) {
+			tableLengths[slot] = length;
+			tableCounts[slot] = 1;
+		} else if (length == tableLengths[slot]) {
+			tableCounts[slot]++;
+		}
+	}
+
+	/* Whether a head of the given length loses a head-to-head in the cell */
+	private boolean loses(int cell, int length) {
+		int slot = slotOf(cell);
+		return length < tableLengths[slot] || tableCounts[slot] > 1;
+	}
+
+	/* Find the slot of the cell in this tick, or the empty slot for it */
+	private int slotOf(int cell) {
+		int slot = (cell * 0x9E3779B9) >>> tableShift;
+		while (tableStamps[slot] == stamp && tableCells[slot] != cell)
+			slot = (slot + 1) & tableMask;
+		return slot;
+	}
+
+	private int randomFreeCell() {
+		int free = board.getFreeCount();
+		if (free == 0)
+			return -1;
+		return board.getFreeCell(random.nextInt(free));
+	}
+
+	private void placeFood(int slot) {
+		int cell = randomFreeCell();
+		food[slot] = cell;
+		if (cell < 0) {
+			emptySlots.set(slot);
+			return;
+		}
+		emptySlots.clear(slot);
+		board.occupy(cell);
+		foodSlots[cell] = slot;
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * Steers the snake to the food by itself, for demos and long soak tests. Each
+ * tick it searches the shortest path to the food breadth first, and takes the
+ * first step of the path only if the tail can still be reached from there,
+ * so that the snake does not lock itself in. Without a safe path it follows
+ * its tail, which always opens up again. Following the tail can go round the
+ * same loop forever, though, so once the snake went as many ticks without
+ * eating as there are cells, it checks the path to the food further ahead:
+ * it takes the path if the tail can be reached from the food once the snake
+ * got there and ate, and otherwise it takes the longest way to its tail,
+ * which changes its shape. On a Level the searches go
+ * through the portals, and the moves are ranked by the distance fields of
+ * the level, unless the distances to the food would have to be searched
+ * first, which the budget does not allow for on a large level.
+ *
+ * The searches run on primitive arrays which are allocated once and reused:
+ * a queue and an open addressed table of the visited cells and their parents.
+ * Instead of clearing the table, each search has a new generation stamp. The
+ * table holds at most a fixed number of cells, so a decision takes a bounded
+ * time even on huge boards. A search which fills the table found more room
+ * than the snake can take, which is safe. The search for the food also stops
+ * when the time of the decision is up, and then the snake follows its tail.
+ * The searches which tell whether a move is safe do not, since what they
+ * visited by then tells nothing about the room the snake needs. The
+ * look further ahead marks the cells which the snake will have left and
+ * entered by then in a second table of the same kind.
+ */
+public class Autopilot implements Controller {
+
+	public static final int DEFAULT_NODE_BUDGET = 1 << 15;
+	public static final long DEFAULT_TIME_BUDGET = 200000;
+
+	/* A search which visited as many cells as it may without an answer */
+	private static final int EXHAUSTED = -2;
+	/* A search whose time was up before it had an answer */
+	private static final int TIMED_OUT = -3;
+	/* The marks of the cells once the snake followed the path to the food */
+	private static final int ENTERED = 1;
+	private static final int LEFT = 2;
+
+	private final int NODE_BUDGET;
+	private final long TIME_BUDGET;
+	private final int[] queue;
+	private final int[] cells;
+	private final int[] parents;
+	private final int[] stamps;
+	private final int mask;
+	private final int shift;
+	private int stamp;
+	/* The path to the food, from the food back to the head */
+	private final int[] path;
+	private final int[] markCells;
+	private final int[] marks;
+	private final int[] markStamps;
+	private final int markMask;
+	private final int markShift;
+	private int markStamp;
+	private final int[] order = new int[4];
+	private long deadline;
+	private int expanded;
+	/* The length of the path of the last search which reached its target */
+	private int pathLength;
+	/* The cell from which the last search reached its target */
+	private int lastStep;
+	/* The tick and the score of the last decision, to tell how long it ate */
+	private long lastTick = -1;
+	private int lastScore;
+	private long lastMeal;
+
+	public Autopilot() {
+		this(DEFAULT_NODE_BUDGET, DEFAULT_TIME_BUDGET);
+	}
+
+	/**
+	 * @param nodeBudget
+	 *            the most cells a search visits
+	 * @param timeBudget
+	 *            the nanoseconds which the search for the food may take
+	 */
+	public Autopilot(int nodeBudget, long timeBudget) {
+		NODE_BUDGET = nodeBudget;
+		TIME_BUDGET = timeBudget;
+		queue = new int[nodeBudget];
+		int size = Integer.highestOneBit(nodeBudget * 2 - 1) << 1;
+		cells = new int[size];
+		parents = new int[size];
+		stamps = new int[size];
+		mask = size - 1;
+		shift = 32 - Integer.numberOfTrailingZeros(size);
+		path = new int[nodeBudget + 1];
+		/* A cell for each cell of the path and each cell of the tail left */
+		int markSize = Integer.highestOneBit(nodeBudget * 4 - 1) << 1;
+		markCells = new int[markSize];
+		marks = new int[markSize];
+		markStamps = new int[markSize];
+		markMask = markSize - 1;
+		markShift = 32 - Integer.numberOfTrailingZeros(markSize);
+	}
+
+	/**
+	 * The number of cells visited by the searches of the last decision.
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	public int nextDirection(Simulation simulation) {
+		deadline = System.nanoTime() + TIME_BUDGET;
+		expanded = 0;
+		Board board = simulation.getBoard();
+		int head = simulation.getBody().getHead();
+		int tail = simulation.getBody().getTail();
+		int food = simulation.getFood();
+
+		long tick = simulation.getTick();
+		if (tick <= lastTick || simulation.getScore() != lastScore) {
+			lastScore = simulation.getScore();
+			lastMeal = tick;
+		}
+		lastTick = tick;
+		boolean circling = tick - lastMeal > board.getCellCount();
+
+		Level level = simulation.getLevel();
+		if (food >= 0) {
+			int first = search(board, level, head, food, tail, true, false,
+					true);
+			if (first >= 0
+					&& (circling ? canEat(simulation, board, level, food)
+							: isSafe(board, level, first, tail)))
+				return simulation.directionTo(first);
+		}
+		if (circling)
+			return longestToTail(simulation, board, level, tail);
+
+		/* Follow the tail, going towards the food if that is safe too */
+		if (simulation.hasFoodDistances())
+			sortByDistance(simulation);
+		else
+			for (int i = 0; i < 4; i++)
+				order[i] = (simulation.getDirection() + i) & 3;
+		int fallback = Simulation.NONE;
+		for (int direction : order) {
+			int next = simulation.nextCell(direction);
+			if (simulation.isDead(next))
+				continue;
+			if (isSafe(board, level, next, tail))
+				return direction;
+			if (fallback == Simulation.NONE)
+				fallback = direction;
+		}
+		return fallback;
+	}
+
+	/*
+	 * Move to the cell from which the way to the tail is longest, or which
+	 * has so much room that the search ran out of budget.
+	 */
+	private int longestToTail(Simulation simulation, Board board, Level level,
+			int tail) {
+		int best = Simulation.NONE;
+		int longest = -1;
+		for (int i = 0; i < 4; i++) {
+			int direction = (simulation.getDirection() + i) & 3;
+			int next = simulation.nextCell(direction);
+			if (simulation.isDead(next))
+				continue;
+			int found = search(board, level, next, tail, tail, false, false,
+					false);
+			int length = found == EXHAUSTED ? Integer.MAX_VALUE
+					: found < 0 ? -1 : pathLength;
+			if (best == Simulation.NONE || length > longest) {
+				best = direction;
+				longest = length;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Whether the tail can be reached after moving into the cell. A search
+	 * which runs out of budget found a lot of room, so that is safe too.
+	 */
+	private boolean isSafe(Board board, Level level, int cell, int tail) {
+		return search(board, level, cell, tail, tail, false, false, false) != -1;
+	}
+
+	/*
+	 * Whether the tail can be reached from the food once the snake followed
+	 * the path which the last search found to it and ate it. By then the
+	 * snake entered the cells of the path and left as many cells of its tail
+	 * but one.
+	 */
+	private boolean canEat(Simulation simulation, Board board, Level level,
+			int food) {
+		SnakeBody body = simulation.getBody();
+		int head = body.getHead();
+		int moves = 0;
+		path[moves++] = food;
+		for (int cell = lastStep; cell != head; cell = parentOf(cell))
+			path[moves++] = cell;
+
+		if (++markStamp == 0)
+			++markStamp;
+		int length = body.size();
+		int left = Math.min(moves - 1, length);
+		for (int i = 0; i < left; i++)
+			mark(body.get(i), LEFT);
+		/* The snake is one longer then, and the rest of the path is left */
+		for (int i = 0; i < moves; i++)
+			mark(path[i], i <= length ? ENTERED : LEFT);
+		int tail = moves - 1 < length ? body.get(moves - 1) : path[length];
+		return search(board, level, food, tail, tail, false, true, false) != -1;
+	}
+
+	/**
+	 * Search breadth first from a cell to the target through the free cells.
+	 * The tail counts as free, except right next to the start, since it moves
+	 * away before the head gets there.
+	 *
+	 * @param ahead
+	 *            whether the cells are taken as marked by canEat() rather
+	 *            than as they are now
+	 * @param timed
+	 *            whether the search stops when the time of the decision is
+	 *            up
+	 * @return the first cell of the path if asked for, or the target, or -1
+	 *         if the target cannot be reached, or EXHAUSTED or TIMED_OUT
+	 */
+	private int search(Board board, Level level, int start, int target,
+			int tail, boolean wantPath, boolean ahead, boolean timed) {
+		if (++stamp == 0)
+			++stamp;
+		int columns = board.getColumns();
+		int rows = board.getRows();
+		int head = 0;
+		int end = 0;
+		visit(start, -1);
+		queue[end++] = start;
+		/* The cells before layerEnd are a move closer than their neighbours */
+		int depth = 1;
+		int layerEnd = end;
+		while (head < end) {
+			if (head == layerEnd) {
+				depth++;
+				layerEnd = end;
+			}
+			int cell = queue[head++];
+			if ((++expanded & 63) == 0 && timed
+					&& System.nanoTime() > deadline)
+				return TIMED_OUT;
+			int column = cell % columns;
+			int row = cell / columns;
+			for (int direction = 0; direction < 4; direction++) {
+				int next;
+				if (level != null) {
+					next = level.step(cell, direction);
+					if (next < 0)
+						continue;
+				} else {
+					int c = column + Simulation.dx(direction);
+					int r = row + Simulation.dy(direction);
+					if (c < 0 || c >= columns || r < 0 || r >= rows)
+						continue;
+					next = r * columns + c;
+				}
+				if (next == target) {
+					pathLength = depth;
+					lastStep = cell;
+					if (!wantPath)
+						return target;
+					return cell == start ? next : firstStep(start, cell);
+				}
+				boolean taken = ahead ? isTakenAhead(board, next) : board
+						.isOccupied(next) && (next != tail || cell == start);
+				if (taken)
+					continue;
+				if (!visit(next, cell))
+					continue;
+				if (end == NODE_BUDGET)
+					return EXHAUSTED;
+				queue[end++] = next;
+			}
+		}
+		return -1;
+	}
+
+	/* Walk back from the cell to the one right after the start */
+	private int firstStep(int start, int cell) {
+		while (true) {
+			int parent = parentOf(cell);
+			if (parent == start)
+				return cell;
+			cell = parent;
+		}
+	}
+
+	private int parentOf(int cell) {
+		return parents[slotOf(cell)];
+	}
+
+	/* Whether the cell is taken once the snake ate, as marked by canEat() */
+	private boolean isTakenAhead(Board board, int cell) {
+		int slot = markSlotOf(cell);
+		if (markStamps[slot] == markStamp)
+			return marks[slot] == ENTERED;
+		return board.isOccupied(cell);
+	}
+
+	private void mark(int cell, int mark) {
+		int slot = markSlotOf(cell);
+		markStamps[slot] = markStamp;
+		markCells[slot] = cell;
+		marks[slot] = mark;
+	}
+
+	private int markSlotOf(int cell) {
+		int slot = (cell * 0x9E3779B9) >>> markShift;
+		while (markStamps[slot] == markStamp && markCells[slot] != cell)
+			slot = (slot + 1) & markMask;
+		return slot;
+	}
+
+	/* Mark the cell as visited from the parent, unless it was already */
+	private boolean visit(int cell, int parent) {
+		int slot = slotOf(cell);
+		if (stamps[slot] == stamp)
+			return false;
+		stamps[slot] = stamp;
+		cells[slot] = cell;
+		parents[slot] = parent;
+		return true;
+	}
+
+	private int slotOf(int cell) {
+		int slot = (cell * 0x9E3779B9) >>> shift;
+		while (stamps[slot] == stamp && cells[slot] != cell)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/* Put the directions in order of the distance to the food after them */
+	private void sortByDistance(Simulation simulation) {
+		for (int i = 0; i < 4; i++) {
+			int direction = (simulation.getDirection() + i) & 3;
+			int distance = distance(simulation, direction);
+			int j = i;
+			while (j > 0 && distance(simulation, order[j - 1]) > distance) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = direction;
+		}
+	}
+
+	private static int distance(Simulation simulation, int direction) {
+		int next = simulation.nextCell(direction);
+		int distance = next < 0 ? -1 : simulation.getFoodDistance(next);
+		return distance < 0 ? Integer.MAX_VALUE : distance;
+	}
+}
@@ -0,0 +1,229 @@
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Runs many independent games at once, for evaluating computer players. Each
+ * game is a Simulation played by a Controller of its own, so the games follow
+ * the rules of the game itself. The games are stepped in lockstep by a
+ * fork-join pool, and a game which ends is recorded and started again with
+ * the next seed. The seeds of the games are derived from the seed of the
+ * batch, so a run can be repeated exactly.
+ *
+ * Unless the players are given, every game is played by a greedy player which
+ * moves towards the food without running into anything.
+ */
+public class BatchSimulator {
+
+	/* Games stepped by one task */
+	private static final int CHUNK = 64;
+
+	private final int GAMES;
+	private final long SEED;
+	private final Simulation[] simulations;
+	private final Controller[] players;
+	private final long[] episodes;
+
+	/* Number of finished games by final score */
+	private final AtomicLongArray scores;
+
+	public BatchSimulator(int games, int columns, int rows, long seed) {
+		this(games, columns, rows, seed, null);
+	}
+
+	/**
+	 * @param games
+	 * @param columns
+	 * @param rows
+	 * @param seed
+	 * @param players
+	 *            creates the player of each game, or null for greedy players
+	 * @throws IllegalArgumentException
+	 *             if the games would have too many cells together
+	 */
+	public BatchSimulator(int games, int columns, int rows, long seed,
+			Supplier<? extends Controller> players) {
+		if (games <= 0 || columns <= 0 || rows <= 0
+				|| (long) games * columns * rows > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Bad batch: " + games
+					+ " games of " + columns + "x" + rows);
+		GAMES = games;
+		SEED = seed;
+		simulations = new Simulation[games];
+		this.players = new Controller[games];
+		episodes = new long[games];
+		scores = new AtomicLongArray(columns * rows);
+		for (int g = 0; g < games; g++) {
+			simulations[g] = new Simulation(columns, rows, seedOf(g));
+			this.players[g] = players != null ? players.get()
+					: new GreedyPlayer(seed + g);
+		}
+	}
+
+	public int getGames() {
+		return GAMES;
+	}
+
+	/**
+	 * Advance every game by the given number of ticks.
+	 *
+	 * @param pool
+	 * @param ticks
+	 */
+	public void step(ForkJoinPool pool, int ticks) {
+		pool.invoke(new StepTask(0, GAMES, ticks));
+	}
+
+	/**
+	 * The number of finished games with each final score.
+	 */
+	public long[] getScoreCounts() {
+		long[] counts = new long[scores.length()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = scores.get(i);
+		return counts;
+	}
+
+	private class StepTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final int from, to, ticks;
+
+		StepTask(int from, int to, int ticks) {
+			this.from = from;
+			this.to = to;
+			this.ticks = ticks;
+		}
+
+		protected void compute() {
+			if (to - from <= CHUNK) {
+				for (int t = 0; t < ticks; t++)
+					for (int g = from; g < to; g++)
+						tick(g);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new StepTask(from, middle, ticks), new StepTask(middle,
+					to, ticks));
+		}
+	}
+
+	private void tick(int g) {
+		Simulation simulation = simulations[g];
+		simulation.step(players[g].nextDirection(simulation));
+		if (simulation.isOver()) {
+			scores.incrementAndGet(simulation.getScore());
+			simulation.reset(seedOf(g));
+		}
+	}
+
+	private long seedOf(int g) {
+		return SEED + g + (long) GAMES * episodes[g]++;
+	}
+
+	/**
+	 * The greedy player: among the directions which do not kill the snake,
+	 * take one that gets closer to the food, breaking ties at random.
+	 */
+	private static class GreedyPlayer implements Controller {
+
+		private final Random random;
+
+		GreedyPlayer(long seed) {
+			random = new Random(seed);
+		}
+
+		public int nextDirection(Simulation simulation) {
+			int reverse = Simulation.reverse(simulation.getDirection());
+			int best = Simulation.NONE;
+			int bestDistance = Integer.MAX_VALUE;
+			int ties = 0;
+			for (int direction = 0; direction < 4; direction++) {
+				if (direction == reverse)
+					continue;
+				int next = simulation.nextCell(direction);
+				if (simulation.isDead(next))
+					continue;
+				int distance = simulation.getFoodDistance(next);
+				if (distance < bestDistance) {
+					best = direction;
+					bestDistance = distance;
+					ties = 1;
+				} else if (distance == bestDistance
+						&& random.nextInt(++ties) == 0) {
+					best = direction;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Run a batch of games with an increasing number of worker threads and
+	 * report the throughput, the scaling and the distribution of the scores.
+	 * Arguments: games, board size, seconds per run.
+	 */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+		int cores = Runtime.getRuntime().availableProcessors();
+		double baseline = 0;
+		int threads = 1;
+		while (true) {
+			BatchSimulator batch = new BatchSimulator(games, size, size, 1);
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			/* Warm up before measuring */
+			batch.step(pool, 100);
+			long ticks = 0;
+			long start = System.nanoTime();
+			long end = start + (long) (seconds * 1e9);
+			while (System.nanoTime() < end) {
+				batch.step(pool, 16);
+				ticks += 16L * games;
+			}
+			double perSecond = ticks * 1e9 / (System.nanoTime() - start);
+			pool.shutdown();
+			if (threads == 1)
+				baseline = perSecond;
+			System.out.println(String.format(Locale.ROOT,
+					"{\"threads\": %d, \"games\": %d, \"columns\": %d, "
+							+ "\"rows\": %d, \"ticksPerSecond\": %.0f, "
+							+ "\"speedup\": %.2f, %s}", threads, games, size,
+					size, perSecond, perSecond / baseline,
+					scoreSummary(batch.getScoreCounts())));
+			if (threads == cores)
+				break;
+			threads = Math.min(cores, threads * 2);
+		}
+	}
+
+	private static String scoreSummary(long[] counts) {
+		long finished = 0, total = 0;
+		for (int score = 0; score < counts.length; score++) {
+			finished += counts[score];
+			total += counts[score] * score;
+		}
+		return String.format(Locale.ROOT, "\"finishedGames\": %d, "
+				+ "\"meanScore\": %.2f, \"p50Score\": %d, \"p90Score\": %d, "
+				+ "\"p99Score\": %d, \"maxScore\": %d", finished,
+				finished == 0 ? 0.0 : (double) total / finished,
+				percentile(counts, finished, 0.5), percentile(counts,
+						finished, 0.9), percentile(counts, finished, 0.99),
+				percentile(counts, finished, 1));
+	}
+
+	private static int percentile(long[] counts, long finished, double fraction) {
+		long rank = Math.max(1, (long) Math.ceil(fraction * finished));
+		long seen = 0;
+		for (int score = 0; score < counts.length; score++) {
+			seen += counts[score];
+			if (seen >= rank)
+				return score;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * The class keeps track of which squares of the board are occupied. Squares
+ * are addressed by their cell index (row * columns + column). Occupancy is
+ * stored as one bit per cell in 64-bit words, and a Fenwick tree over the
+ * words counts the occupied cells, so that occupying or releasing a cell and
+ * picking the n-th free cell all take O(log n) time. The board needs about
+ * 1.5 bits per cell, and a new board is all free without initializing
+ * anything but the zeroed arrays, so boards of 10000x10000 cells are fine.
+ * A board may have fixed cells, like the walls of a Level, which stay
+ * occupied when it is cleared.
+ */
+public class Board {
+
+	private final int COLUMNS;
+	private final int ROWS;
+	private final int CELLS;
+	/* Bit i % 64 of word i / 64 is set if cell i is occupied */
+	private final long[] words;
+	/*
+	 * Fenwick tree of the number of occupied cells in each word, 1-based:
+	 * counts[i] holds the sum over the words (i - (i & -i), i]
+	 */
+	private final int[] counts;
+	/* The largest power of two not above the number of words */
+	private final int topStep;
+	/* The cells which are always occupied, in the layout of words, or null */
+	private final long[] fixed;
+	/* The cells which are not fixed */
+	private final int OPEN_CELLS;
+	private int freeCount;
+
+	public Board(int columns, int rows) {
+		this(columns, rows, null);
+	}
+
+	/**
+	 * A board on which the fixed cells are occupied, and stay occupied when
+	 * it is cleared.
+	 *
+	 * @param columns
+	 * @param rows
+	 * @param fixed
+	 *            a bit for each cell, in the layout of the words of the
+	 *            board, or null
+	 */
+	public Board(int columns, int rows, long[] fixed) {
+		long cells = (long) columns * rows;
+		if (columns <= 0 || rows <= 0 || cells > Integer.MAX_VALUE - 63)
+			throw new IllegalArgumentException("Bad board size: " + columns
+					+ "x" + rows);
+		this.COLUMNS = columns;
+		this.ROWS = rows;
+		this.CELLS = (int) cells;
+		int wordCount = (CELLS + 63) >>> 6;
+		words = new long[wordCount];
+		counts = new int[wordCount + 1];
+		topStep = Integer.highestOneBit(wordCount);
+		this.fixed = fixed;
+		int open = CELLS;
+		if (fixed != null)
+			for (long word : fixed)
+				open -= Long.bitCount(word);
+		OPEN_CELLS = open;
+		occupyPadding();
+		if (fixed != null)
+			occupyFixed();
+	}
+
+	public int getColumns() {
+		return COLUMNS;
+	}
+
+	public int getRows() {
+		return ROWS;
+	}
+
+	public int getCellCount() {
+		return CELLS;
+	}
+
+	/**
+	 * The number of cells which are not fixed, which the snake can fill.
+	 */
+	public int getOpenCount() {
+		return OPEN_CELLS;
+	}
+
+	public int cellAt(int column, int row) {
+		return row * COLUMNS + column;
+	}
+
+	public int columnOf(int cell) {
+		return cell % COLUMNS;
+	}
+
+	public int rowOf(int cell) {
+		return cell / COLUMNS;
+	}
+
+	public boolean isInside(int column, int row) {
+		return column >= 0 && column < COLUMNS && row >= 0 && row < ROWS;
+	}
+
+	public boolean isOccupied(int cell) {
+		return (words[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Mark the cell as occupied.
+	 *
+	 * @param cell
+	 */
+	public void occupy(int cell) {
+		int word = cell >>> 6;
+		long bit = 1L << cell;
+		if ((words[word] & bit) != 0)
+			return;
+		words[word] |= bit;
+		add(word, 1);
+		freeCount--;
+	}
+
+	/**
+	 * Mark the cell as free.
+	 *
+	 * @param cell
+	 */
+	public void release(int cell) {
+		int word = cell >>> 6;
+		long bit = 1L << cell;
+		if ((words[word] & bit) == 0)
+			return;
+		words[word] &= ~bit;
+		add(word, -1);
+		freeCount++;
+	}
+
+	/**
+	 * Mark every cell as free.
+	 */
+	public void clear() {
+		Arrays.fill(words, 0);
+		Arrays.fill(counts, 0);
+		occupyPadding();
+		if (fixed != null)
+			occupyFixed();
+	}
+
+	/**
+	 * Whether the cell is one of the fixed cells, which are always occupied.
+	 */
+	public boolean isFixed(int cell) {
+		return fixed != null && (fixed[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * Get the n-th free cell, n being in [0, getFreeCount()), in the order of
+	 * the cell indices. Used with a random n to get a uniformly distributed
+	 * free cell.
+	 *
+	 * @param n
+	 * @return the cell index
+	 */
+	public int getFreeCell(int n) {
+		if (n < 0 || n >= freeCount)
+			throw new IndexOutOfBoundsException("No free cell " + n);
+		/* Find the word holding the free cell by descending the tree */
+		int word = 0;
+		for (int step = topStep; step > 0; step >>>= 1) {
+			int next = word + step;
+			if (next < counts.length) {
+				int free = (step << 6) - counts[next];
+				if (free <= n) {
+					word = next;
+					n -= free;
+				}
+			}
+		}
+		return (word << 6) + selectBit(~words[word], n);
+	}
+
+	/* The bits past the last cell are occupied so that they are never free */
+	private void occupyPadding() {
+		freeCount = CELLS;
+		int padding = (words.length << 6) - CELLS;
+		if (padding > 0) {
+			words[words.length - 1] = -1L << (64 - padding);
+			add(words.length - 1, padding);
+		}
+	}
+
+	/* Occupy the fixed cells and build the tree over all the words at once */
+	private void occupyFixed() {
+		int occupied = 0;
+		for (int i = 0; i < words.length; i++) {
+			words[i] |= fixed[i];
+			counts[i + 1] = Long.bitCount(words[i]);
+			occupied += counts[i + 1];
+		}
+		for (int i = 1; i < counts.length; i++) {
+			int parent = i + (i & -i);
+			if (parent < counts.length)
+				counts[parent] += counts[i];
+		}
+		freeCount = (words.length << 6) - occupied;
+	}
+
+	/* Add to the number of occupied cells of the word */
+	private void add(int word, int delta) {
+		for (int i = word + 1; i < counts.length; i += i & -i)
+			counts[i] += delta;
+	}
+
+	/* The position of the n-th set bit of the bits, counting from 0 */
+	private static int selectBit(long bits, int n) {
+		int position = 0;
+		for (int width = 32; width > 0; width >>>= 1) {
+			long low = bits & ((1L << width) - 1);
+			int count = Long.bitCount(low);
+			if (count <= n) {
+				n -= count;
+				bits >>>= width;
+				position += width;
+			} else {
+				bits = low;
+			}
+		}
+		return position;
+	}
+}
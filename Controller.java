@@ -0,0 +1,15 @@
+/**
+ * A source of directions for a simulation, such as recorded key inputs or a
+ * computer player.
+ */
+public interface Controller {
+
+	/**
+	 * Choose the direction for the next tick of the simulation.
+	 *
+	 * @param simulation
+	 * @return one of the directions of Simulation, or Simulation.NONE to keep
+	 *         moving forward
+	 */
+	int nextDirection(Simulation simulation);
+}
@@ -0,0 +1,226 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes frames of a FrameRenderer into a directory as a sequence of PNG
+ * files, frame-000000.png, frame-000001.png and so on, which video tools can
+ * put together. The frames are encoded on a thread of their own: offer()
+ * copies the pixels into one of a few spare buffers and returns at once, and
+ * drops the frame if the encoder is behind and no buffer is spare, so the
+ * thread of the simulation never waits. Dropped frames leave a gap in the
+ * numbers. put() waits for a buffer instead, for an export which must have
+ * every frame.
+ *
+ * The frames are numbered by a counter which is not shared between threads,
+ * so only one thread may call offer() and put().
+ */
+public class FrameExporter implements Closeable {
+
+	private static final int DEFAULT_BUFFERS = 8;
+
+	private final Path directory;
+	private final int WIDTH;
+	private final int HEIGHT;
+	private final BlockingQueue<Frame> spare;
+	private final BlockingQueue<Frame> pending;
+	/* Tells the encoder that no more frames come */
+	private final Frame end = new Frame(null);
+	private final Thread encoder;
+	private final AtomicLong dropped = new AtomicLong();
+	/* The number of the next frame, used by the one submitting thread */
+	private long number;
+	private volatile long written;
+	private volatile IOException failure;
+
+	public FrameExporter(Path directory, int width, int height)
+			throws IOException {
+		this(directory, width, height, DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * @param directory
+	 *            the directory of the files, which is created if needed
+	 * @param width
+	 * @param height
+	 * @param buffers
+	 *            the number of frames which may wait for the encoder
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public FrameExporter(Path directory, int width, int height, int buffers)
+			throws IOException {
+		Files.createDirectories(directory);
+		this.directory = directory;
+		WIDTH = width;
+		HEIGHT = height;
+		spare = new ArrayBlockingQueue<Frame>(buffers);
+		pending = new ArrayBlockingQueue<Frame>(buffers + 1);
+		for (int i = 0; i < buffers; i++)
+			spare.add(new Frame(new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB)));
+		encoder = new Thread(new Runnable() {
+			public void run() {
+				encode();
+			}
+		}, "Frame exporter");
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+
+	/**
+	 * Hand a frame to the encoder, or drop it if the encoder is behind.
+	 *
+	 * @param pixels
+	 *            WIDTH * HEIGHT pixels, as made by FrameRenderer
+	 * @return whether the frame was taken
+	 */
+	public boolean offer(int[] pixels) {
+		Frame frame = spare.poll();
+		if (frame == null) {
+			dropped.incrementAndGet();
+			number++;
+			return false;
+		}
+		submit(frame, pixels);
+		return true;
+	}
+
+	/**
+	 * Hand a frame to the encoder, waiting until it has room for it.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while it waits
+	 */
+	public void put(int[] pixels) throws InterruptedIOException {
+		try {
+			submit(spare.take(), pixels);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private void submit(Frame frame, int[] pixels) {
+		System.arraycopy(pixels, 0, frame.pixels, 0, WIDTH * HEIGHT);
+		frame.number = number++;
+		pending.add(frame);
+	}
+
+	/**
+	 * The number of frames which were dropped because the encoder was behind.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * The number of frames written so far.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	private void encode() {
+		try {
+			while (true) {
+				Frame frame = pending.take();
+				if (frame == end)
+					return;
+				try {
+					if (failure == null)
+						write(frame);
+				} catch (IOException e) {
+					failure = e;
+				}
+				spare.add(frame);
+			}
+		} catch (InterruptedException e) {
+			/* Closed */
+		}
+	}
+
+	private void write(Frame frame) throws IOException {
+		Path file = directory.resolve(String.format("frame-%06d.png",
+				frame.number));
+		/* The stream which ImageIO makes itself may cache in a temporary file */
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				ImageOutputStream out = new MemoryCacheImageOutputStream(
+						Channels.newOutputStream(channel))) {
+			if (!ImageIO.write(frame.image, "png", out))
+				throw new IOException("No PNG encoder");
+		}
+		written++;
+	}
+
+	/**
+	 * Wait for the frames handed over to be written, and stop the encoder.
+	 *
+	 * @throws IOException
+	 *             if a frame could not be written
+	 */
+	public void close() throws IOException {
+		pending.add(end);
+		try {
+			encoder.join();
+		} catch (InterruptedException e) {
+			encoder.interrupt();
+			throw new InterruptedIOException();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Write every tick of a recorded game, from the start, into the directory.
+	 *
+	 * @return the number of frames written
+	 * @throws IOException
+	 */
+	public static long export(GameReplayer replayer, Path directory,
+			int cellSize) throws IOException {
+		replayer.rewind();
+		Simulation simulation = replayer.newSimulation();
+		FrameRenderer renderer = new FrameRenderer(simulation, cellSize);
+		FrameExporter exporter = new FrameExporter(directory,
+				renderer.getWidth(), renderer.getHeight());
+		try {
+			exporter.put(renderer.render());
+			while (!simulation.isOver() && !replayer.isFinished(simulation)) {
+				simulation.step(replayer.nextDirection(simulation));
+				exporter.put(renderer.renderChanges());
+			}
+		} finally {
+			exporter.close();
+		}
+		return exporter.getWritten();
+	}
+
+	private static class Frame {
+
+		final BufferedImage image;
+		final int[] pixels;
+		long number;
+
+		Frame(BufferedImage image) {
+			this.image = image;
+			pixels = image == null ? null : ((DataBufferInt) image
+					.getRaster().getDataBuffer()).getData();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the board of a simulation into an array of ARGB pixels, one int per
+ * pixel row after row, without any Graphics, so frames can be made headless
+ * for videos and thumbnails of games. The cells are copied from the tiles of
+ * a TileAtlas, which are turned into pixel arrays once. With the colors of
+ * Snake the frames look the same as the game panel, without the score; a
+ * caller which draws with other colors, or already has an atlas of the cell
+ * size, passes them in instead.
+ *
+ * Like Snake.drawChanges, renderChanges() only draws the few cells which
+ * changed in the last tick, so that a frame after each tick costs the same on
+ * any board.
+ */
+public class FrameRenderer {
+
+	private final Simulation simulation;
+	private final Board board;
+	private final int CELL;
+	private final int WIDTH;
+	private final int HEIGHT;
+	private final int[] pixels;
+	private final int background;
+	private final int wall;
+	private final int portal;
+	/* The tile of each set of joined sides, as in TileAtlas */
+	private final int[][] segments = new int[16][];
+	private final TileAtlas atlas;
+	private final int[] food;
+	private Color foodColor;
+	/* The food cell as it was last drawn */
+	private int drawnFood = -1;
+
+	/**
+	 * A renderer with the colors of Snake and an atlas of its own.
+	 */
+	public FrameRenderer(Simulation simulation, int cellSize) {
+		this(simulation, new TileAtlas(cellSize), Snake.BOARD_COLOR,
+				Snake.SNAKE_COLOR, Snake.JOINT_COLOR, Snake.WALL_COLOR,
+				Snake.PORTAL_COLOR, Snake.FOOD_COLOR);
+	}
+
+	/**
+	 * @param simulation
+	 * @param atlas
+	 *            the tiles of the snake and the food, whose cell size is the
+	 *            cell size of the frames
+	 * @param boardColor
+	 * @param snakeColor
+	 * @param jointColor
+	 * @param wallColor
+	 * @param portalColor
+	 * @param foodColor
+	 *            the first color of the food, see setFoodColor()
+	 */
+	public FrameRenderer(Simulation simulation, TileAtlas atlas,
+			Color boardColor, Color snakeColor, Color jointColor,
+			Color wallColor, Color portalColor, Color foodColor) {
+		this.simulation = simulation;
+		this.atlas = atlas;
+		board = simulation.getBoard();
+		CELL = atlas.getCellSize();
+		WIDTH = board.getColumns() * CELL;
+		HEIGHT = board.getRows() * CELL;
+		pixels = new int[WIDTH * HEIGHT];
+		background = boardColor.getRGB();
+		wall = wallColor.getRGB();
+		portal = portalColor.getRGB();
+		for (int sides = 0; sides < segments.length; sides++)
+			segments[sides] = pixelsOf(atlas.getSegment(sides, boardColor,
+					snakeColor, jointColor));
+		food = new int[CELL * CELL];
+		setFoodColor(foodColor);
+	}
+
+	public int getWidth() {
+		return WIDTH;
+	}
+
+	public int getHeight() {
+		return HEIGHT;
+	}
+
+	/**
+	 * The frame, WIDTH * HEIGHT pixels row after row, which is drawn over by
+	 * every call to render.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	public void setFoodColor(Color color) {
+		if (color.equals(foodColor))
+			return;
+		foodColor = color;
+		atlas.getFood(color).getRGB(0, 0, CELL, CELL, food, 0, CELL);
+	}
+
+	/**
+	 * Draw the whole board.
+	 *
+	 * @return the pixels
+	 */
+	public int[] render() {
+		Arrays.fill(pixels, background);
+		Level level = simulation.getLevel();
+		if (level != null) {
+			for (int cell = level.nextWall(0); cell >= 0; cell = level
+					.nextWall(cell + 1))
+				fillCell(cell, wall);
+			for (int i = 0; i < level.getPortalCount() * 2; i++)
+				fillCell(level.getPortal(i / 2, i % 2), portal);
+		}
+		drawnFood = simulation.getFood();
+		if (drawnFood >= 0)
+			drawTile(food, drawnFood);
+		SnakeBody body = simulation.getBody();
+		for (int i = 0; i < body.size(); i++)
+			drawSegment(body, i);
+		return pixels;
+	}
+
+	/**
+	 * Draw only the cells which changed in the last tick onto the frame of
+	 * the tick before it: the removed tail, the new tail, the old and the new
+	 * head, and the old and the new food.
+	 *
+	 * @return the pixels
+	 */
+	public int[] renderChanges() {
+		SnakeBody body = simulation.getBody();
+		int size = body.size();
+		int removedTail = simulation.getRemovedTail();
+		if (removedTail >= 0)
+			fillCell(removedTail, background);
+		int cell = simulation.getFood();
+		if (drawnFood >= 0 && drawnFood != cell && !board.isOccupied(drawnFood))
+			fillCell(drawnFood, background);
+		if (cell >= 0)
+			drawTile(food, cell);
+		drawnFood = cell;
+		drawSegment(body, 0);
+		if (size > 2)
+			drawSegment(body, size - 2);
+		if (size > 1)
+			drawSegment(body, size - 1);
+		return pixels;
+	}
+
+	/* The i-th unit of the body with the joints to its neighbours */
+	private void drawSegment(SnakeBody body, int i) {
+		int cell = body.get(i);
+		int sides = 0;
+		if (i > 0)
+			sides |= TileAtlas.sideBetween(board, cell, body.get(i - 1));
+		if (i < body.size() - 1)
+			sides |= TileAtlas.sideBetween(board, cell, body.get(i + 1));
+		drawTile(segments[sides], cell);
+	}
+
+	private void drawTile(int[] tile, int cell) {
+		int start = board.rowOf(cell) * CELL * WIDTH + board.columnOf(cell)
+				* CELL;
+		for (int y = 0; y < CELL; y++)
+			System.arraycopy(tile, y * CELL, pixels, start + y * WIDTH, CELL);
+	}
+
+	private void fillCell(int cell, int color) {
+		int start = board.rowOf(cell) * CELL * WIDTH + board.columnOf(cell)
+				* CELL;
+		for (int y = 0; y < CELL; y++)
+			Arrays.fill(pixels, start + y * WIDTH, start + y * WIDTH + CELL,
+					color);
+	}
+
+	private int[] pixelsOf(BufferedImage tile) {
+		return tile.getRGB(0, 0, CELL, CELL, null, 0, CELL);
+	}
+}
@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the durations of the most recent frames to report their percentiles,
+ * so that different ways of rendering the game can be compared.
+ */
+public class FrameTimes {
+
+	private final long[] samples;
+	private int count;
+	private int next;
+
+	public FrameTimes(int capacity) {
+		samples = new long[capacity];
+	}
+
+	public synchronized void record(long nanos) {
+		samples[next] = nanos;
+		if (++next == samples.length)
+			next = 0;
+		if (count < samples.length)
+			count++;
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the frame time below which the given fraction of the recorded
+	 * frames fall.
+	 *
+	 * @param fraction
+	 *            from 0 to 1
+	 * @return the frame time in nanoseconds, or 0 if nothing is recorded
+	 */
+	public synchronized long percentile(double fraction) {
+		if (count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(fraction * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))];
+	}
+
+	public String summary() {
+		return String.format("p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, "
+				+ "max %.2f ms (%d frames)", percentile(0.5) / 1e6,
+				percentile(0.9) / 1e6, percentile(0.99) / 1e6,
+				percentile(1) / 1e6, getCount());
+	}
+}
@@ -1,19 +1,40 @@
+import java.awt.FontMetrics;
+import java.awt.AWTException;
+import java.awt.BorderLayout;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.ImageCapabilities;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * The class provides a frame for the menu and panel of the game. It is also
@@ -24,25 +45,78 @@ import javax.swing.JPanel;
  */
 public class Game {
 
+	/* The pixels of the screen taken by the title bar and the menu */
+	private static final int SCREEN_MARGIN = 80;
+	/* The keys, shown at the start and by Help */
+	private static final String HELP = "Press direction arrows to start instantly."
+			+ "\n"
+			+ "Hold direction arrows for acceleration."
+			+ "\n"
+			+ "Press white space to pause/unpause, and to reset when game is stopped."
+			+ "\n"
+			+ "Press A to let the autopilot play, or H for the perfect player."
+			+ "\n"
+			+ "Press F3 to show the timings, when run with -Dsnake.metrics=true."
+			+ "\n" + "Press ESC to exit.";
+
 	private final JFrame WINDOW = new JFrame();
+	private final GameConfig CONFIG;
+	private final int COLUMNS;
+	private final int ROWS;
+	private final int CELL_SIZE;
 	private final int WIDTH;
 	private final int HEIGHT;
 	private final GameCore GAME_CORE;
 	private final GameMenu GAME_MENU;
-	private Thread gameLoop;
-	private String gameStatus;
-	private String difficulty;
+	private final GameLoop LOOP = new GameLoop(new GameLoop.Game() {
+		public long getPeriod() {
+			return period;
+		}
+
+		public void started() {
+			startRecording();
+			updateSpeed();
+		}
+
+		public void update() {
+			GAME_CORE.updateGame();
+			updateSpeed();
+		}
+
+		public void render() {
+			GAME_CORE.render();
+		}
+	});
+	private volatile String difficulty;
 	private boolean reverse;
-	private int expectFrequency;
-	private int frequency;
+	/* The ticks per second of the difficulty at the start of a game */
+	private volatile double tickRate;
+	private volatile SpeedCurve speedCurve;
+	private volatile boolean boosted;
+	/* The nanoseconds between two updates */
+	private volatile long period;
+	/* The file into which each game is recorded, or null */
+	private Path recordFile;
+	/* The best scores kept across games, or null if they cannot be saved */
+	private final Leaderboard LEADERBOARD;
+	private final GameEventBus EVENTS = new GameEventBus();
 
 	public Game(String title, int width, int height, String difficulty) {
-		gameStatus = "NEW";
+		this(title, new GameConfig(width, height, difficulty));
+	}
+
+	public Game(String title, GameConfig config) {
 		reverse = false;
-		WIDTH = width - width % 10;
-		HEIGHT = height - height % 10;
+		CONFIG = config;
+		COLUMNS = config.getColumns();
+		ROWS = config.getRows();
+		CELL_SIZE = fitCellSize(config);
+		WIDTH = COLUMNS * CELL_SIZE;
+		HEIGHT = ROWS * CELL_SIZE;
+		LEADERBOARD = openLeaderboard();
+		speedCurve = config.getSpeedCurve();
 		GAME_CORE = new GameCore();
-		setDifficulty(difficulty);
+		setDifficulty(config.getDifficulty());
 		GAME_MENU = new GameMenu();
 		GAME_CORE.setPreferredSize(new Dimension(WIDTH, HEIGHT));
 
@@ -56,26 +130,35 @@ public class Game {
 		WINDOW.setTitle(title);
 		WINDOW.setVisible(true);
 		WINDOW.addKeyListener(GAME_CORE);
+		Metrics.register();
+		subscribeEvents();
 
 		/*
 		 * show help message when game is launched
 		 */
-		JOptionPane
-				.showMessageDialog(
-						WINDOW,
-						"Press direction arrows to start instantly."
-								+ "\n"
-								+ "Hold direction arrows for acceleration."
-								+ "\n"
-								+ "Press white space to pause/unpause, and to reset when game is stopped."
-								+ "\n" + "Press ESC to exit.", "Help",
-						JOptionPane.INFORMATION_MESSAGE);
+		JOptionPane.showMessageDialog(WINDOW, HELP, "Help",
+				JOptionPane.INFORMATION_MESSAGE);
 	}
 
 	public JFrame getWindow() {
 		return WINDOW;
 	}
 
+	/*
+	 * The cell size of the settings, made smaller down to a pixel if the
+	 * board would not fit on the screen otherwise.
+	 */
+	private static int fitCellSize(GameConfig config) {
+		int cellSize = config.getCellSize();
+		if (GraphicsEnvironment.isHeadless())
+			return cellSize;
+		Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getMaximumWindowBounds();
+		int fit = Math.min(screen.width / config.getColumns(),
+				(screen.height - SCREEN_MARGIN) / config.getRows());
+		return Math.max(1, Math.min(cellSize, fit));
+	}
+
 	public int getWidth() {
 		return WIDTH;
 	}
@@ -84,123 +167,291 @@ public class Game {
 		return HEIGHT;
 	}
 
+	/**
+	 * The level of the games, or null for an empty board.
+	 */
+	public Level getLevel() {
+		return CONFIG.getLevel();
+	}
+
+	public int getColumns() {
+		return COLUMNS;
+	}
+
+	public int getRows() {
+		return ROWS;
+	}
+
+	public int getCellSize() {
+		return CELL_SIZE;
+	}
+
 	public GameCore getGameCore() {
 		return GAME_CORE;
 	}
 
-	public String getGameStatus() {
-		return gameStatus;
+	public GameEventBus getEvents() {
+		return EVENTS;
+	}
+
+	/**
+	 * Let the user interface, the leaderboard and the metrics follow the
+	 * events of the game, each on its own thread.
+	 */
+	private void subscribeEvents() {
+		addStateListener((from, to) -> EVENTS.publish(GameEvent.ofState(
+				from, to)));
+		EVENTS.subscribe(event -> {
+			if (event.isByPlayer())
+				GAME_CORE.updateBestScore(event.getScore());
+		}, SwingUtilities::invokeLater, GameEvent.Type.DEATH);
+		if (LEADERBOARD != null) {
+			/* Submitting only queues the score for the leaderboard's writer */
+			EVENTS.subscribe(event -> {
+				if (event.isByPlayer())
+					LEADERBOARD.submit(event.getDifficulty(),
+							event.getColumns(), event.getRows(),
+							event.getScore(), System.currentTimeMillis());
+			}, Runnable::run, GameEvent.Type.DEATH);
+		}
+		Metrics.subscribe(EVENTS);
+	}
+
+	public GameState getGameState() {
+		return LOOP.getState();
+	}
+
+	public void addStateListener(GameState.Listener listener) {
+		LOOP.addStateListener(listener);
+	}
+
+	public void removeStateListener(GameState.Listener listener) {
+		LOOP.removeStateListener(listener);
+	}
+
+	public Path getRecordFile() {
+		return recordFile;
+	}
+
+	/**
+	 * Record every game played by hand into the file, replacing the previous
+	 * recording, or stop recording if it is null.
+	 * 
+	 * @param recordFile
+	 */
+	public void setRecordFile(Path recordFile) {
+		this.recordFile = recordFile;
+		GAME_MENU.MI_REPLAY.setEnabled(recordFile != null);
+	}
+
+	/**
+	 * Restart the game as a replay of a recorded game. The recording must
+	 * have been made on a board of the same size.
+	 * 
+	 * @param path
+	 * @throws IOException
+	 */
+	public void replay(Path path) throws IOException {
+		GameReplayer replayer = new GameReplayer(path);
+		if (replayer.getColumns() != COLUMNS
+				|| replayer.getRows() != ROWS)
+			throw new IOException("The game was recorded on a "
+					+ replayer.getColumns() + "x" + replayer.getRows()
+					+ " board");
+		stop();
+		renew();
+		Snake snake = new Snake(this, replayer.newSimulation());
+		snake.setController(replayer);
+		GAME_CORE.resetGame(snake);
+		start();
+	}
+
+	/**
+	 * Restart the game as a view of the game played on a server, which the
+	 * key inputs steer if this is the first client of the server. The server
+	 * must play on a board of the same size.
+	 * 
+	 * @param address
+	 * @throws IOException
+	 */
+	public void connect(InetSocketAddress address) throws IOException {
+		SnakeClient client = new SnakeClient(address);
+		Board board = client.getSimulation().getBoard();
+		if (board.getColumns() != COLUMNS || board.getRows() != ROWS) {
+			client.close();
+			throw new IOException("The server plays on a "
+					+ board.getColumns() + "x" + board.getRows() + " board");
+		}
+		stop();
+		renew();
+		Snake snake = new Snake(this, client.getSimulation());
+		snake.setRemote(client);
+		GAME_CORE.resetGame(snake);
+		start();
+	}
+
+	public String getDifficulty() {
+		return difficulty;
 	}
 
 	public void setDifficulty(String difficulty) {
 		this.difficulty = difficulty;
-		switch (difficulty) {
-		case "Easy":
-			expectFrequency = 5;
-			frequency = expectFrequency;
-			reverse = false;
-			break;
-		case "Medium":
-			expectFrequency = 10;
-			frequency = expectFrequency;
-			reverse = false;
-			break;
-		case "Hard":
-			expectFrequency = 15;
-			frequency = expectFrequency;
-			reverse = false;
-			break;
-		case "Extreme":
-			expectFrequency = 15;
-			frequency = expectFrequency;
-			reverse = true;
-			break;
-		default:
-			break;
+		tickRate = CONFIG.getTickRate(difficulty);
+		updateSpeed();
+		reverse = difficulty.equals("Extreme");
+		GAME_CORE.bestScore = loadBestScore();
+	}
+
+	private static Leaderboard openLeaderboard() {
+		try {
+			return new Leaderboard(Paths.get(System.getProperty("user.home"),
+					".snake", "scores.db"));
+		} catch (IOException e) {
+			System.err.println("Cannot open the leaderboard: " + e);
+			return null;
 		}
-		GAME_CORE.bestScore = new int[3];
+	}
+
+	/**
+	 * Get the three best scores of the current difficulty and board size from
+	 * the leaderboard.
+	 */
+	private int[] loadBestScore() {
+		int[] best = new int[3];
+		if (LEADERBOARD == null)
+			return best;
+		List<Leaderboard.Entry> top = LEADERBOARD.getTop(difficulty,
+				COLUMNS, ROWS);
+		for (int i = 0; i < best.length && i < top.size(); i++)
+			best[i] = top.get(i).getScore();
+		return best;
 	}
 
 	/**
 	 * Change the update frequency of the game to have the effect of boost.
 	 */
 	public void boost() {
-		frequency = (int) (2.5 * expectFrequency);
+		boosted = true;
+		updateSpeed();
 	}
 
 	/**
 	 * Change the update frequency of the game back to origin value.
 	 */
 	public void deboost() {
-		frequency = expectFrequency;
+		boosted = false;
+		updateSpeed();
+	}
+
+	public SpeedCurve getSpeedCurve() {
+		return speedCurve;
+	}
+
+	/**
+	 * Change how the game speeds up. A running game goes on at the speed of
+	 * the new curve from its next update.
+	 */
+	public void setSpeedCurve(SpeedCurve speedCurve) {
+		this.speedCurve = speedCurve;
+		updateSpeed();
 	}
 
 	/**
-	 * Start the game by initializing the game loop thread and setting it to
-	 * start.
+	 * Read the settings file again and take the speed settings from it: the
+	 * tick rates, the boost and the speed curve, which apply from the next
+	 * update. The other settings change at the next launch of the game.
+	 *
+	 * @throws IOException
+	 *             if there is no settings file or it cannot be read
+	 * @throws IllegalArgumentException
+	 *             if a setting of the file is not valid
+	 */
+	public void reloadSettings() throws IOException {
+		Path source = CONFIG.getSource();
+		if (source == null)
+			throw new IOException("There is no settings file");
+		/* The settings which the file does not have stay as they are */
+		GameConfig loaded = new GameConfig();
+		for (String level : Leaderboard.DIFFICULTIES)
+			loaded.setTickRate(level, CONFIG.getTickRate(level));
+		loaded.setBoostFactor(CONFIG.getBoostFactor());
+		loaded.setSpeedCurve(CONFIG.getSpeedCurve());
+		loaded.load(source);
+
+		for (String level : Leaderboard.DIFFICULTIES)
+			CONFIG.setTickRate(level, loaded.getTickRate(level));
+		CONFIG.setBoostFactor(loaded.getBoostFactor());
+		CONFIG.setSpeedCurve(loaded.getSpeedCurve());
+		tickRate = CONFIG.getTickRate(difficulty);
+		setSpeedCurve(CONFIG.getSpeedCurve());
+	}
+
+	/**
+	 * The nanoseconds between two updates of the game at its current speed.
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/* Work out the period from the score and the size of the snake */
+	private void updateSpeed() {
+		Snake snake = GAME_CORE.snake;
+		int score = 0;
+		double fill = 0;
+		if (snake != null) {
+			score = snake.getScore();
+			/* The walls and portals of a level are never filled */
+			fill = (double) snake.getSimulation().getBody().size()
+					/ snake.getSimulation().getBoard().getOpenCount();
+		}
+		double rate = tickRate;
+		if (boosted)
+			rate *= CONFIG.getBoostFactor();
+		period = speedCurve.getPeriod(rate, score, fill);
+	}
+
+	/**
+	 * Start the game on a new game loop thread, see GameLoop.
 	 */
 	public void start() {
-		gameStatus = "RUNNING";
-		gameLoop = new Thread() {
-			public void run() {
-				while (gameStatus.equals("RUNNING")
-						|| gameStatus.equals("PAUSED")) {
-					double now = System.nanoTime();
-					double lastUpdate = now;
-					while (gameStatus.equals("RUNNING")) {
-						while (now - lastUpdate < (1000000000 / frequency)) {
-							if (!gameStatus.equals("RUNNING"))
-								break;
-							Thread.yield();
-							try {
-								Thread.sleep(1);
-							} catch (Exception e) {
-							}
-							now = System.nanoTime();
-						}
-						/*
-						 * render if updated. multiple updates are made if
-						 * necessary
-						 */
-						while (now - lastUpdate > (1000000000 / frequency)) {
-							GAME_CORE.repaint();
-							GAME_CORE.updateGame();
-							lastUpdate += (1000000000 / frequency);
-						}
-					}
-					while (gameStatus.equals("PAUSED")) {
-						Thread.yield();
-						try {
-							Thread.sleep(1);
-						} catch (Exception e) {
-						}
-						;
-					}
-				}
-			}
-		};
-		gameLoop.start();
+		LOOP.start();
+	}
 
+	/* Record a new game played by hand, if a record file is set */
+	private void startRecording() {
+		Snake snake = GAME_CORE.snake;
+		/* A recording does not keep the level, so it could not be replayed */
+		if (recordFile != null && snake.getController() == null
+				&& CONFIG.getLevel() == null) {
+			try {
+				snake.startRecording(recordFile);
+			} catch (IOException e) {
+				System.err.println("Cannot record the game: " + e);
+			}
+		}
 	}
 
 	public void pause() {
-		gameStatus = "PAUSED";
-		System.out.println("PAUSED");
+		if (LOOP.pause())
+			System.out.println("PAUSED");
 	}
 
 	public void unpause() {
-		gameStatus = "RUNNING";
-		System.out.println("UNPAUSED");
+		if (LOOP.unpause())
+			System.out.println("UNPAUSED");
 	}
 
 	public void stop() {
-		gameStatus = "STOPPED";
+		LOOP.stop();
 	}
 
 	public void renew() {
-		gameStatus = "NEW";
-		GAME_CORE.resetGame();
-		GAME_CORE.repaint();
+		if (LOOP.renew(new Runnable() {
+			public void run() {
+				GAME_CORE.resetGame();
+			}
+		}))
+			GAME_CORE.repaint();
 	}
 
 	public void exit() {
@@ -208,6 +459,8 @@ public class Game {
 		stop();
 		WINDOW.removeKeyListener(GAME_CORE);
 		WINDOW.dispose();
+		if (LEADERBOARD != null)
+			LEADERBOARD.close();
 	}
 
 	class GameMenu extends JMenuBar implements ActionListener {
@@ -216,24 +469,34 @@ public class Game {
 		 * 
 		 */
 		private static final long serialVersionUID = -5995961800376482109L;
-		private final JMenu M_GAME, M_DIFFICULTY, M_SCORE, M_ABOUT;
-		private final JMenuItem MI_RESTART, MI_EXIT, MI_PAUSE_UNPAUSE, MI_EASY,
-				MI_MEDIUM, MI_HARD, MI_EXTREME, MI_SCOREBOARD, MI_CREDITS,
-				MI_HELP;
+		private final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+				.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+		private final JMenu M_GAME, M_DIFFICULTY, M_SCORE, M_VIEW, M_ABOUT;
+		private final JMenuItem MI_RESTART, MI_REPLAY, MI_EXIT, MI_PAUSE_UNPAUSE, MI_EASY,
+				MI_MEDIUM, MI_HARD, MI_EXTREME, MI_SCOREBOARD, MI_FRAME_TIMES,
+				MI_CREDITS, MI_HELP, MI_RELOAD;
+		private final JCheckBoxMenuItem MI_ACTIVE_RENDERING;
 
 		public GameMenu() {
 
 			M_GAME = new JMenu("Game");
 			M_DIFFICULTY = new JMenu("Difficulty");
 			M_SCORE = new JMenu("Score");
+			M_VIEW = new JMenu("View");
 			M_ABOUT = new JMenu("About");
 
 			MI_RESTART = new JMenuItem("Restart");
+			MI_REPLAY = new JMenuItem("Replay Last Game");
+			MI_REPLAY.setEnabled(false);
 			MI_PAUSE_UNPAUSE = new JMenuItem("Pause/Unpause");
+			MI_RELOAD = new JMenuItem("Reload Settings");
 			MI_EXIT = new JMenuItem("Exit");
 
 			MI_SCOREBOARD = new JMenuItem("Scoreboard");
 
+			MI_ACTIVE_RENDERING = new JCheckBoxMenuItem("Active Rendering");
+			MI_FRAME_TIMES = new JMenuItem("Frame Times");
+
 			MI_EASY = new JMenuItem("Easy");
 			MI_MEDIUM = new JMenuItem("Medium");
 			MI_HARD = new JMenuItem("Hard");
@@ -245,26 +508,35 @@ public class Game {
 			add(M_GAME);
 			add(M_DIFFICULTY);
 			add(M_SCORE);
+			add(M_VIEW);
 			add(M_ABOUT);
 			M_GAME.add(MI_RESTART);
+			M_GAME.add(MI_REPLAY);
 			M_GAME.add(MI_PAUSE_UNPAUSE);
+			M_GAME.add(MI_RELOAD);
 			M_GAME.add(MI_EXIT);
 			M_DIFFICULTY.add(MI_HARD);
 			M_DIFFICULTY.add(MI_MEDIUM);
 			M_DIFFICULTY.add(MI_EASY);
 			M_DIFFICULTY.add(MI_EXTREME);
 			M_SCORE.add(MI_SCOREBOARD);
+			M_VIEW.add(MI_ACTIVE_RENDERING);
+			M_VIEW.add(MI_FRAME_TIMES);
 			M_ABOUT.add(MI_HELP);
 			M_ABOUT.add(MI_CREDITS);
 
 			MI_RESTART.addActionListener(this);
+			MI_REPLAY.addActionListener(this);
 			MI_EXIT.addActionListener(this);
 			MI_PAUSE_UNPAUSE.addActionListener(this);
+			MI_RELOAD.addActionListener(this);
 			MI_EASY.addActionListener(this);
 			MI_MEDIUM.addActionListener(this);
 			MI_HARD.addActionListener(this);
 			MI_EXTREME.addActionListener(this);
 			MI_SCOREBOARD.addActionListener(this);
+			MI_ACTIVE_RENDERING.addActionListener(this);
+			MI_FRAME_TIMES.addActionListener(this);
 			MI_CREDITS.addActionListener(this);
 			MI_HELP.addActionListener(this);
 		}
@@ -274,13 +546,33 @@ public class Game {
 				stop();
 				renew();
 			}
+			if (e.getSource().equals(MI_REPLAY)) {
+				try {
+					replay(recordFile);
+				} catch (IOException ex) {
+					JOptionPane.showMessageDialog(WINDOW,
+							"Cannot replay the last game." + "\n"
+									+ ex.getMessage(), "Replay",
+							JOptionPane.ERROR_MESSAGE);
+				}
+			}
+			if (e.getSource().equals(MI_RELOAD)) {
+				try {
+					reloadSettings();
+				} catch (IOException | IllegalArgumentException ex) {
+					JOptionPane.showMessageDialog(WINDOW,
+							"Cannot reload the settings." + "\n"
+									+ ex.getMessage(), "Settings",
+							JOptionPane.ERROR_MESSAGE);
+				}
+			}
 			if (e.getSource().equals(MI_EXIT)) {
 				exit();
 			}
 			if (e.getSource().equals(MI_PAUSE_UNPAUSE)) {
-				if (gameStatus.equals("RUNNING"))
+				if (LOOP.getState() == GameState.RUNNING)
 					pause();
-				else if (gameStatus.equals("PAUSED"))
+				else if (LOOP.getState() == GameState.PAUSED)
 					unpause();
 			}
 			if (e.getSource().equals(MI_EASY)) {
@@ -304,11 +596,38 @@ public class Game {
 				setDifficulty("Extreme");
 			}
 			if (e.getSource().equals(MI_SCOREBOARD)) {
-				JOptionPane.showMessageDialog(WINDOW, "Difficulty: "
-						+ difficulty + "\n" + "First Place: "
-						+ GAME_CORE.bestScore[0] + "\n" + "Second Place: "
-						+ GAME_CORE.bestScore[1] + "\n" + "Third Place: "
-						+ GAME_CORE.bestScore[2] + "\n", "Scoreboard",
+				if (LEADERBOARD == null) {
+					JOptionPane.showMessageDialog(WINDOW, "Difficulty: "
+							+ difficulty + "\n" + "First Place: "
+							+ GAME_CORE.bestScore[0] + "\n" + "Second Place: "
+							+ GAME_CORE.bestScore[1] + "\n" + "Third Place: "
+							+ GAME_CORE.bestScore[2] + "\n", "Scoreboard",
+							JOptionPane.INFORMATION_MESSAGE);
+				} else {
+					StringBuilder message = new StringBuilder("Difficulty: "
+							+ difficulty + "\n" + "Board: " + COLUMNS + "x"
+							+ ROWS + "\n");
+					List<Leaderboard.Entry> top = LEADERBOARD.getTop(
+							difficulty, COLUMNS, ROWS);
+					for (int i = 0; i < top.size(); i++) {
+						Instant time = Instant.ofEpochMilli(top.get(i).getTime());
+						message.append((i + 1) + ". " + top.get(i).getScore()
+								+ "    " + DATE_FORMAT.format(time) + "\n");
+					}
+					if (top.isEmpty())
+						message.append("No scores yet" + "\n");
+					JOptionPane.showMessageDialog(WINDOW, message.toString(),
+							"Scoreboard", JOptionPane.INFORMATION_MESSAGE);
+				}
+			}
+			if (e.getSource().equals(MI_ACTIVE_RENDERING)) {
+				GAME_CORE.setActiveRendering(MI_ACTIVE_RENDERING.isSelected());
+			}
+			if (e.getSource().equals(MI_FRAME_TIMES)) {
+				JOptionPane.showMessageDialog(WINDOW, "Passive (paintComponent):"
+						+ "\n" + GAME_CORE.passiveFrameTimes.summary() + "\n"
+						+ "Active (BufferStrategy):" + "\n"
+						+ GAME_CORE.activeFrameTimes.summary(), "Frame Times",
 						JOptionPane.INFORMATION_MESSAGE);
 			}
 			if (e.getSource().equals(MI_CREDITS)) {
@@ -317,16 +636,8 @@ public class Game {
 						JOptionPane.INFORMATION_MESSAGE);
 			}
 			if (e.getSource().equals(MI_HELP)) {
-				JOptionPane
-						.showMessageDialog(
-								WINDOW,
-								"Press direction arrows to start instantly."
-										+ "\n"
-										+ "Hold direction arrows for acceleration."
-										+ "\n"
-										+ "Press white space to pause/unpause, and to reset when game is stopped."
-										+ "\n" + "Press ESC to exit.", "Help",
-								JOptionPane.INFORMATION_MESSAGE);
+				JOptionPane.showMessageDialog(WINDOW, HELP, "Help",
+						JOptionPane.INFORMATION_MESSAGE);
 			}
 			GAME_CORE.repaint();
 
@@ -342,11 +653,80 @@ public class Game {
 		private boolean[] keys = new boolean[256];
 		private Snake snake;
 		private int[] bestScore = new int[3];
+		/*
+		 * In incremental mode the board is kept in a backbuffer, and only the
+		 * squares changed by each update are drawn and repainted. The lock of
+		 * the backbuffer is also held while the snake moves and while any
+		 * painting reads its body, which the game loop changes in place.
+		 */
+		private volatile boolean incremental = true;
+		private final Object backbufferLock = new Object();
+		private BufferedImage backbuffer;
+		private Graphics2D backbufferGraphics;
+		private boolean fullRedraw = true;
+		private int drawnScore;
+		/* The canvas which the game loop renders to in active rendering mode */
+		private volatile ActiveCanvas canvas;
+		private final FrameTimes passiveFrameTimes = new FrameTimes(1000);
+		private final FrameTimes activeFrameTimes = new FrameTimes(1000);
+		/* Whether the metrics are drawn over the board */
+		private volatile boolean overlay;
 
 		public GameCore() {
 			resetGame();
 		}
 
+		public boolean isIncremental() {
+			return incremental;
+		}
+
+		public void setIncremental(boolean incremental) {
+			this.incremental = incremental;
+			redrawAll();
+		}
+
+		/**
+		 * Redraw the whole board at the next paint instead of only the squares
+		 * that changed.
+		 */
+		public void redrawAll() {
+			synchronized (backbufferLock) {
+				fullRedraw = true;
+			}
+			repaint();
+			ActiveCanvas active = canvas;
+			if (active != null)
+				active.repaint();
+		}
+
+		public boolean isActiveRendering() {
+			return canvas != null;
+		}
+
+		/**
+		 * Switch between active rendering, where the game loop draws each frame
+		 * onto a canvas and flips its buffers, and Swing's passive painting.
+		 * This must be called on the event dispatch thread.
+		 */
+		public void setActiveRendering(boolean active) {
+			if (active == (canvas != null))
+				return;
+			if (active) {
+				ActiveCanvas newCanvas = new ActiveCanvas();
+				setLayout(new BorderLayout());
+				add(newCanvas, BorderLayout.CENTER);
+				revalidate();
+				canvas = newCanvas;
+			} else {
+				ActiveCanvas oldCanvas = canvas;
+				canvas = null;
+				remove(oldCanvas);
+				oldCanvas.dispose();
+				revalidate();
+			}
+			redrawAll();
+		}
+
 		public void keyPressed(KeyEvent e) {
 			if (e.getKeyCode() > 255)
 				return;
@@ -354,7 +734,32 @@ public class Game {
 			if (e.getKeyCode() == KeyEvent.VK_ESCAPE)
 				exit();
 
-			if (!gameStatus.equals("PAUSED")) {
+			/* Pressing A to hand the snake to the autopilot or take it back */
+			if (e.getKeyCode() == KeyEvent.VK_A && snake.getRemote() == null) {
+				if (snake.getController() instanceof Autopilot)
+					snake.setController(null);
+				else if (snake.getController() == null)
+					snake.setController(new Autopilot());
+			}
+
+			/* Pressing H to hand the snake to the Hamiltonian solver */
+			if (e.getKeyCode() == KeyEvent.VK_H && snake.getRemote() == null
+					&& HamiltonianSolver.isSolvable(COLUMNS, ROWS)
+					&& CONFIG.getLevel() == null) {
+				if (snake.getController() instanceof HamiltonianSolver)
+					snake.setController(null);
+				else if (snake.getController() == null)
+					snake.setController(new HamiltonianSolver(COLUMNS, ROWS));
+			}
+
+			/* Pressing F3 to show or hide the metrics overlay */
+			if (e.getKeyCode() == KeyEvent.VK_F3 && Metrics.ENABLED) {
+				overlay = !overlay;
+				redrawAll();
+			}
+
+			GameState state = LOOP.getState();
+			if (state != GameState.PAUSED) {
 				/*
 				 * check if the game is in the reversed mode. If so, snake
 				 * should move to reverse direction of the key pressed
@@ -424,7 +829,7 @@ public class Game {
 			 * Launch the game if any direction key is pressed when the game is
 			 * newly initialized
 			 */
-			if (gameStatus.equals("NEW"))
+			if (state == GameState.NEW)
 				if (e.getKeyCode() == KeyEvent.VK_UP
 						|| e.getKeyCode() == KeyEvent.VK_DOWN
 						|| e.getKeyCode() == KeyEvent.VK_LEFT
@@ -433,12 +838,12 @@ public class Game {
 
 			/* Pressing space to pause or resume the game */
 			if (e.getKeyCode() == KeyEvent.VK_SPACE && !keys[KeyEvent.VK_SPACE]) {
-				if (gameStatus.equals("RUNNING")) {
+				if (state == GameState.RUNNING) {
 					pause();
 					keys[KeyEvent.VK_SPACE] = true;
 				} else
 
-				if (gameStatus.equals("PAUSED")) {
+				if (state == GameState.PAUSED) {
 					unpause();
 					keys[KeyEvent.VK_SPACE] = true;
 				}
@@ -446,7 +851,7 @@ public class Game {
 
 			keys[e.getKeyCode()] = true;
 
-			if (gameStatus.equals("STOPPED"))
+			if (LOOP.getState() == GameState.STOPPED)
 				if (keys[KeyEvent.VK_SPACE]) {
 					renew();
 				}
@@ -525,12 +930,56 @@ public class Game {
 		 * wall) or just move. It notifies the game when it dies.
 		 */
 		public void updateGame() {
-			snake.move();
+			synchronized (backbufferLock) {
+				snake.move();
+				if (!incremental || canvas != null || backbuffer == null
+						|| fullRedraw)
+					return;
+				snake.drawChanges(backbufferGraphics, this);
+			}
+			int score = snake.getScore();
+			if (score != drawnScore) {
+				drawnScore = score;
+				FontMetrics metrics = getFontMetrics(getFont());
+				repaint(0, 0, snake.getScoreWidth(metrics) + 20,
+						20 + metrics.getDescent());
+			}
 		}
 
-		public void updateBestScore() {
-			int score = snake.getScore();
+		/**
+		 * Show the updated game. In incremental mode the changed squares are
+		 * already scheduled for repaint by updateGame.
+		 */
+		public void render() {
+			ActiveCanvas active = canvas;
+			if (active != null)
+				active.renderFrame();
+			else if (!incremental)
+				repaint();
+			else if (overlay)
+				repaint(0, 25, 360, 15 * 5 + 10);
+		}
+
+		private void drawOverlay(Graphics g) {
+			if (!overlay)
+				return;
+			g.setColor(Color.white);
+			String[] lines = Metrics.overlayLines();
+			for (int i = 0; i < lines.length; i++)
+				g.drawString(lines[i], 10, 40 + 15 * i);
+		}
+
+		/**
+		 * Put the score of a finished game into the best scores, and
+		 * congratulate the player on a new best score. This is called on the
+		 * event dispatch thread.
+		 * 
+		 * @param score
+		 */
+		public void updateBestScore(int score) {
 			if (score > bestScore[0]) {
+				EVENTS.publish(GameEvent.ofSnake(GameEvent.Type.NEW_BEST,
+						score, true));
 				JOptionPane.showMessageDialog(WINDOW, "New Best Score!" + "\n"
 						+ score);
 				bestScore[2] = bestScore[1];
@@ -546,16 +995,136 @@ public class Game {
 		}
 
 		public void paintComponent(Graphics g) {
+			if (canvas != null)
+				return;
+			long start = System.nanoTime();
+			paintBoard(g);
+			drawOverlay(g);
+			long time = System.nanoTime() - start;
+			passiveFrameTimes.record(time);
+			if (Metrics.ENABLED)
+				Metrics.RENDER_TIME.record(time);
+		}
+
+		private void paintBoard(Graphics g) {
 			Graphics2D g2d = (Graphics2D) g;
-			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-					RenderingHints.VALUE_ANTIALIAS_ON);
-			g.setColor(Color.darkGray);
-			g.fillRect(0, 0, Game.this.getWidth(), Game.this.getHeight());
-			snake.drawSnake(g2d);
+			/* The board is made of axis-aligned squares, only text needs it */
+			g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+					RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			if (!incremental) {
+				g.setColor(Snake.BOARD_COLOR);
+				g.fillRect(0, 0, Game.this.getWidth(), Game.this.getHeight());
+				synchronized (backbufferLock) {
+					snake.drawSnake(g2d);
+				}
+				return;
+			}
+			synchronized (backbufferLock) {
+				if (backbuffer == null) {
+					backbuffer = getGraphicsConfiguration()
+							.createCompatibleImage(Game.this.getWidth(),
+									Game.this.getHeight());
+					backbufferGraphics = backbuffer.createGraphics();
+					fullRedraw = true;
+				}
+				if (fullRedraw) {
+					backbufferGraphics.setColor(Snake.BOARD_COLOR);
+					backbufferGraphics.fillRect(0, 0, Game.this.getWidth(),
+							Game.this.getHeight());
+					snake.drawBoard(backbufferGraphics);
+					fullRedraw = false;
+				}
+				g.drawImage(backbuffer, 0, 0, null);
+			}
+			drawnScore = snake.getScore();
+			snake.drawScore(g2d);
 		}
 
 		public void resetGame() {
-			snake = new Snake(Game.this);
+			resetGame(new Snake(Game.this));
+		}
+
+		public void resetGame(Snake newSnake) {
+			if (snake != null)
+				snake.finishRecording();
+			snake = newSnake;
+			redrawAll();
+		}
+
+		/**
+		 * A canvas which is drawn actively by the game loop through a page
+		 * flipping buffer strategy, instead of waiting for Swing to paint.
+		 */
+		class ActiveCanvas extends Canvas {
+
+			/**
+			 * 
+			 */
+			private static final long serialVersionUID = -2360468107935227331L;
+
+			public ActiveCanvas() {
+				setFocusable(false);
+				setBackground(Snake.BOARD_COLOR);
+			}
+
+			/**
+			 * Draw a full frame into the back buffer and show it. Page flipping
+			 * is requested so that the frame is presented on the display's
+			 * vertical retrace where the platform supports it.
+			 */
+			public synchronized void renderFrame() {
+				if (!isDisplayable())
+					return;
+				BufferStrategy strategy = getBufferStrategy();
+				if (strategy == null) {
+					try {
+						createBufferStrategy(2, new BufferCapabilities(
+								new ImageCapabilities(true),
+								new ImageCapabilities(true),
+								BufferCapabilities.FlipContents.UNDEFINED));
+					} catch (AWTException e) {
+						createBufferStrategy(2);
+					}
+					strategy = getBufferStrategy();
+				}
+				long start = System.nanoTime();
+				do {
+					do {
+						Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+						g.setRenderingHint(
+								RenderingHints.KEY_TEXT_ANTIALIASING,
+								RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+						g.setColor(Snake.BOARD_COLOR);
+						g.fillRect(0, 0, Game.this.getWidth(),
+								Game.this.getHeight());
+						synchronized (backbufferLock) {
+							snake.drawSnake(g);
+						}
+						drawOverlay(g);
+						g.dispose();
+					} while (strategy.contentsRestored());
+					strategy.show();
+					Toolkit.getDefaultToolkit().sync();
+				} while (strategy.contentsLost());
+				long time = System.nanoTime() - start;
+				activeFrameTimes.record(time);
+				if (Metrics.ENABLED)
+					Metrics.RENDER_TIME.record(time);
+			}
+
+			public void paint(Graphics g) {
+				renderFrame();
+			}
+
+			public void update(Graphics g) {
+				renderFrame();
+			}
+
+			public synchronized void dispose() {
+				BufferStrategy strategy = getBufferStrategy();
+				if (strategy != null)
+					strategy.dispose();
+			}
 		}
 	}
 
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * The settings of the game which used to be fixed in the code: the size of
+ * the board in cells, the size of a cell in pixels, the ticks per second of
+ * each difficulty, how the game speeds up as it goes on (see SpeedCurve) and
+ * how much holding a key speeds the snake up. The settings can be read from a
+ * properties file and from the command line, using the same keys. A level
+ * file, see Level, sets the size of the board:
+ *
+ * <pre>
+ * columns=25
+ * rows=25
+ * cellSize=10
+ * difficulty=Medium
+ * rate.Easy=5
+ * rate.Medium=10
+ * rate.Hard=15
+ * rate.Extreme=15
+ * speedup.max=2
+ * speedup.score=0.02
+ * speedup.fill=1
+ * boost=2.5
+ * level=maze.level
+ * </pre>
+ *
+ * A level in a properties file is found relative to the directory of the
+ * file, and one on the command line relative to the working directory.
+ */
+public class GameConfig {
+
+	private int columns = 25;
+	private int rows = 25;
+	private int cellSize = 10;
+	private String difficulty = "Medium";
+	/* Ticks per second of each of Leaderboard.DIFFICULTIES */
+	private final double[] tickRates = { 5, 10, 15, 15 };
+	private double boostFactor = 2.5;
+	private SpeedCurve speedCurve = new SpeedCurve(2, 0.02, 1);
+	private Level level;
+	private Path source;
+
+	public GameConfig() {
+	}
+
+	/**
+	 * A configuration for a window of the given size in pixels, with the
+	 * default cell size.
+	 */
+	public GameConfig(int width, int height, String difficulty) {
+		setColumns(width / cellSize);
+		setRows(height / cellSize);
+		setDifficulty(difficulty);
+	}
+
+	public int getColumns() {
+		return level != null ? level.getColumns() : columns;
+	}
+
+	public void setColumns(int columns) {
+		if (columns < 3)
+			throw new IllegalArgumentException("Too few columns: " + columns);
+		this.columns = columns;
+	}
+
+	public int getRows() {
+		return level != null ? level.getRows() : rows;
+	}
+
+	public void setRows(int rows) {
+		if (rows < 1)
+			throw new IllegalArgumentException("Too few rows: " + rows);
+		this.rows = rows;
+	}
+
+	/**
+	 * The width and height of a cell in pixels.
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	public void setCellSize(int cellSize) {
+		if (cellSize < 1)
+			throw new IllegalArgumentException("Bad cell size: " + cellSize);
+		this.cellSize = cellSize;
+	}
+
+	public String getDifficulty() {
+		return difficulty;
+	}
+
+	public void setDifficulty(String difficulty) {
+		indexOf(difficulty);
+		this.difficulty = difficulty;
+	}
+
+	/**
+	 * The ticks per second of the given difficulty.
+	 */
+	public double getTickRate(String difficulty) {
+		return tickRates[indexOf(difficulty)];
+	}
+
+	public void setTickRate(String difficulty, double rate) {
+		if (!(rate > 0))
+			throw new IllegalArgumentException("Bad tick rate: " + rate);
+		tickRates[indexOf(difficulty)] = rate;
+	}
+
+	/**
+	 * How many times faster the snake moves while a direction key is held.
+	 */
+	public double getBoostFactor() {
+		return boostFactor;
+	}
+
+	public void setBoostFactor(double boostFactor) {
+		if (!(boostFactor >= 1))
+			throw new IllegalArgumentException("Bad boost factor: "
+					+ boostFactor);
+		this.boostFactor = boostFactor;
+	}
+
+	public SpeedCurve getSpeedCurve() {
+		return speedCurve;
+	}
+
+	public void setSpeedCurve(SpeedCurve speedCurve) {
+		this.speedCurve = speedCurve;
+	}
+
+	/**
+	 * The level to play on, or null for an empty board.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	/**
+	 * Change the setting with the given key to the value.
+	 *
+	 * @param key
+	 * @param value
+	 * @throws IllegalArgumentException
+	 *             if the key is unknown or the value is not valid for it
+	 */
+	public void set(String key, String value) {
+		value = value.trim();
+		try {
+			if (key.equals("columns"))
+				setColumns(Integer.parseInt(value));
+			else if (key.equals("rows"))
+				setRows(Integer.parseInt(value));
+			else if (key.equals("cellSize"))
+				setCellSize(Integer.parseInt(value));
+			else if (key.equals("difficulty"))
+				setDifficulty(value);
+			else if (key.startsWith("rate."))
+				setTickRate(key.substring(5), Double.parseDouble(value));
+			else if (key.equals("boost"))
+				setBoostFactor(Double.parseDouble(value));
+			else if (key.equals("speedup.max"))
+				speedCurve = new SpeedCurve(Double.parseDouble(value),
+						speedCurve.getScoreGain(), speedCurve.getFillGain());
+			else if (key.equals("speedup.score"))
+				speedCurve = new SpeedCurve(speedCurve.getMaxFactor(),
+						Double.parseDouble(value), speedCurve.getFillGain());
+			else if (key.equals("speedup.fill"))
+				speedCurve = new SpeedCurve(speedCurve.getMaxFactor(),
+						speedCurve.getScoreGain(), Double.parseDouble(value));
+			else if (key.equals("level"))
+				setLevel(Level.load(Paths.get(value)));
+			else
+				throw new IllegalArgumentException("Unknown setting: " + key);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad value for " + key + ": "
+					+ value);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read the " + key + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the settings in the properties file, keeping the current value of
+	 * the settings which the file does not have.
+	 *
+	 * @param path
+	 *            the file, which becomes the source of the settings
+	 * @throws IOException
+	 */
+	public void load(Path path) throws IOException {
+		source = path;
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(path,
+				StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			if (key.equals("level"))
+				value = path.resolveSibling(value.trim()).toString();
+			set(key, value);
+		}
+	}
+
+	/**
+	 * The properties file which the settings are read from, or null.
+	 */
+	public Path getSource() {
+		return source;
+	}
+
+	public void setSource(Path source) {
+		this.source = source;
+	}
+
+	private static int indexOf(String difficulty) {
+		int index = Leaderboard.DIFFICULTIES.indexOf(difficulty);
+		if (index < 0)
+			throw new IllegalArgumentException("Unknown difficulty: "
+					+ difficulty);
+		return index;
+	}
+}
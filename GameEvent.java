@@ -0,0 +1,118 @@
+/**
+ * Something that happened in a game, published on the GameEventBus.
+ */
+public class GameEvent {
+
+	public enum Type {
+		/* The snake ate the food and grew */
+		FOOD_EATEN,
+		/* The snake died or filled the whole board, ending the game */
+		DEATH,
+		/* A finished game made a new best score */
+		NEW_BEST,
+		/* The game changed its state */
+		STATE_CHANGE
+	}
+
+	private final Type type;
+	private final int score;
+	private final boolean byPlayer;
+	private final GameState from;
+	private final GameState to;
+	private final String difficulty;
+	private final int columns;
+	private final int rows;
+
+	private GameEvent(Type type, int score, boolean byPlayer, GameState from,
+			GameState to, String difficulty, int columns, int rows) {
+		this.type = type;
+		this.score = score;
+		this.byPlayer = byPlayer;
+		this.from = from;
+		this.to = to;
+		this.difficulty = difficulty;
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	/**
+	 * An event about the snake.
+	 *
+	 * @param type
+	 * @param score
+	 *            the score after the event
+	 * @param byPlayer
+	 *            whether the snake was steered by the player rather than a
+	 *            controller
+	 */
+	public static GameEvent ofSnake(Type type, int score, boolean byPlayer) {
+		return new GameEvent(type, score, byPlayer, null, null, null, 0, 0);
+	}
+
+	/**
+	 * The end of a game, with the settings it was played with, as they may
+	 * change before the subscribers get the event.
+	 *
+	 * @param score
+	 *            the final score
+	 * @param byPlayer
+	 *            whether the snake was steered by the player rather than a
+	 *            controller
+	 * @param difficulty
+	 * @param columns
+	 *            the columns of the board
+	 * @param rows
+	 *            the rows of the board
+	 */
+	public static GameEvent ofDeath(int score, boolean byPlayer,
+			String difficulty, int columns, int rows) {
+		return new GameEvent(Type.DEATH, score, byPlayer, null, null,
+				difficulty, columns, rows);
+	}
+
+	public static GameEvent ofState(GameState from, GameState to) {
+		return new GameEvent(Type.STATE_CHANGE, 0, false, from, to, null, 0,
+				0);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public boolean isByPlayer() {
+		return byPlayer;
+	}
+
+	public GameState getFrom() {
+		return from;
+	}
+
+	public GameState getTo() {
+		return to;
+	}
+
+	/**
+	 * The difficulty of the game which ended, or null if not a DEATH.
+	 */
+	public String getDifficulty() {
+		return difficulty;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public String toString() {
+		if (type == Type.STATE_CHANGE)
+			return type + " " + from + " -> " + to;
+		return type + " " + score;
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers game events from the game loop to the rest of the program without
+ * making the loop wait. Publishing only adds the event to a lock-free queue
+ * and wakes up the dispatching thread, which hands the event to each
+ * interested subscriber on the subscriber's own executor, such as the event
+ * dispatch thread for dialogs or a background thread for saving scores.
+ */
+public class GameEventBus {
+
+	public interface Subscriber {
+
+		void onEvent(GameEvent event);
+	}
+
+	private static class Subscription {
+
+		final Subscriber subscriber;
+		final Executor executor;
+		final EnumSet<GameEvent.Type> types;
+
+		Subscription(Subscriber subscriber, Executor executor,
+				EnumSet<GameEvent.Type> types) {
+			this.subscriber = subscriber;
+			this.executor = executor;
+			this.types = types;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<GameEvent> queue = new ConcurrentLinkedQueue<GameEvent>();
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final Thread dispatcher;
+
+	public GameEventBus() {
+		dispatcher = new Thread("Game Events") {
+			public void run() {
+				while (true) {
+					GameEvent event = queue.poll();
+					if (event == null) {
+						LockSupport.park(this);
+						continue;
+					}
+					dispatch(event);
+				}
+			}
+		};
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Let the subscriber receive the events of the given types, or of all
+	 * types if none is given. The subscriber is called through the executor.
+	 *
+	 * @param subscriber
+	 * @param executor
+	 * @param types
+	 */
+	public void subscribe(Subscriber subscriber, Executor executor,
+			GameEvent.Type... types) {
+		EnumSet<GameEvent.Type> set = EnumSet.noneOf(GameEvent.Type.class);
+		for (GameEvent.Type type : types)
+			set.add(type);
+		if (set.isEmpty())
+			set = EnumSet.allOf(GameEvent.Type.class);
+		subscriptions.add(new Subscription(subscriber, executor, set));
+	}
+
+	public void unsubscribe(Subscriber subscriber) {
+		for (Subscription subscription : subscriptions)
+			if (subscription.subscriber == subscriber)
+				subscriptions.remove(subscription);
+	}
+
+	/**
+	 * Publish the event and return immediately. Safe to call from any thread.
+	 *
+	 * @param event
+	 */
+	public void publish(GameEvent event) {
+		queue.offer(event);
+		LockSupport.unpark(dispatcher);
+	}
+
+	private void dispatch(GameEvent event) {
+		for (Subscription subscription : subscriptions) {
+			if (!subscription.types.contains(event.getType()))
+				continue;
+			try {
+				subscription.executor.execute(() -> subscription.subscriber
+						.onEvent(event));
+			} catch (RuntimeException e) {
+				System.err.println("Cannot deliver " + event + ": " + e);
+			}
+		}
+	}
+}
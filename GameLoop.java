@@ -0,0 +1,233 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The state of a game and the thread which runs it. The loop updates the
+ * game at a fixed time step: it parks until the next update is due, catches
+ * up on at most MAX_CATCH_UP missed updates at once, and then renders once.
+ * Pausing, unpausing and stopping wake the loop immediately.
+ *
+ * Each renewed game is a new generation, and a loop only updates the game of
+ * its own generation, holding a lock which renew() takes too. So once a game
+ * is renewed, the loop of the game before never updates again, and at most
+ * one loop updates at any time, whichever threads change the state. start()
+ * holds the same lock while it changes the state, takes the generation and
+ * publishes the new loop, so a running game always has the loop of its own
+ * generation, and pausing and unpausing wake that loop.
+ */
+public class GameLoop {
+
+	/* The most updates made in a row to catch up with the schedule */
+	private static final int MAX_CATCH_UP = 5;
+
+	/**
+	 * What the loop runs.
+	 */
+	public interface Game {
+
+		/**
+		 * The nanoseconds between two updates, read before each update.
+		 */
+		long getPeriod();
+
+		/**
+		 * Called on the thread of start(), after the game changed to
+		 * RUNNING and before the loop starts, holding the lock of the
+		 * updates.
+		 */
+		void started();
+
+		void update();
+
+		/**
+		 * Called after the updates which were due, once for each turn of
+		 * the loop. The snake moves a whole cell at a time, so nothing is
+		 * drawn between two updates.
+		 */
+		void render();
+	}
+
+	private final Game GAME;
+	private final AtomicReference<GameState> state = new AtomicReference<GameState>(
+			GameState.NEW);
+	private final CopyOnWriteArrayList<GameState.Listener> listeners = new CopyOnWriteArrayList<GameState.Listener>();
+	/* Held while updating, and while renewing the game */
+	private final Object updateLock = new Object();
+	private volatile int generation;
+	private volatile Thread thread;
+
+	public GameLoop(Game game) {
+		GAME = game;
+	}
+
+	public GameState getState() {
+		return state.get();
+	}
+
+	public void addStateListener(GameState.Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeStateListener(GameState.Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The thread of the current loop, or null before the first start.
+	 */
+	public Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * Start a new game. Only one of several threads starting the same game at
+	 * once starts a loop.
+	 *
+	 * @return whether the game was started
+	 */
+	public boolean start() {
+		Thread loop;
+		synchronized (updateLock) {
+			if (!transition(GameState.NEW, GameState.RUNNING))
+				return false;
+			/* No renew() can come in between and change the generation */
+			loop = newLoop(generation);
+			thread = loop;
+			GAME.started();
+		}
+		loop.start();
+		return true;
+	}
+
+	public boolean pause() {
+		return transition(GameState.RUNNING, GameState.PAUSED);
+	}
+
+	public boolean unpause() {
+		return transition(GameState.PAUSED, GameState.RUNNING);
+	}
+
+	public boolean stop() {
+		return transition(GameState.STOPPED);
+	}
+
+	/**
+	 * Make a stopped game new, ready to be started again, after the loop of
+	 * the stopped game finished its last update.
+	 *
+	 * @param reset
+	 *            run while the game is renewed, before it is NEW, or null
+	 * @return whether the game was renewed
+	 */
+	public boolean renew(Runnable reset) {
+		synchronized (updateLock) {
+			if (state.get() != GameState.STOPPED)
+				return false;
+			generation++;
+			if (reset != null)
+				reset.run();
+		}
+		return transition(GameState.STOPPED, GameState.NEW);
+	}
+
+	/**
+	 * Change the state of the game if the change is legal, then wake the game
+	 * loop up and notify the listeners.
+	 *
+	 * @param to
+	 * @return true if the state is changed
+	 */
+	private boolean transition(GameState to) {
+		while (true) {
+			GameState from = state.get();
+			if (!from.canTransitionTo(to))
+				return false;
+			if (state.compareAndSet(from, to)) {
+				stateChanged(from, to);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Change the state of the game only if it is in the expected state.
+	 */
+	private boolean transition(GameState from, GameState to) {
+		if (!from.canTransitionTo(to) || !state.compareAndSet(from, to))
+			return false;
+		stateChanged(from, to);
+		return true;
+	}
+
+	private void stateChanged(GameState from, GameState to) {
+		Thread loop = thread;
+		if (loop != null)
+			LockSupport.unpark(loop);
+		for (GameState.Listener listener : listeners)
+			listener.stateChanged(from, to);
+	}
+
+	/* Whether the loop of the generation may go on running */
+	private boolean isRunning(int loopGeneration) {
+		return state.get() == GameState.RUNNING
+				&& generation == loopGeneration;
+	}
+
+	private Thread newLoop(final int loopGeneration) {
+		Thread loop = new Thread("Game Loop") {
+			public void run() {
+				long lastUpdate = System.nanoTime();
+				while (true) {
+					if (state.get() == GameState.PAUSED
+							&& generation == loopGeneration) {
+						LockSupport.park(this);
+						/* Do not catch up on the time spent paused */
+						lastUpdate = System.nanoTime();
+						continue;
+					}
+					if (!isRunning(loopGeneration))
+						break;
+
+					long period = GAME.getPeriod();
+					long now = System.nanoTime();
+					long wait = lastUpdate + period - now;
+					if (wait > 0) {
+						LockSupport.parkNanos(this, wait);
+						continue;
+					}
+
+					int updates = 0;
+					while (now - lastUpdate >= period && updates < MAX_CATCH_UP) {
+						synchronized (updateLock) {
+							if (!isRunning(loopGeneration))
+								break;
+							if (Metrics.ENABLED) {
+								long start = System.nanoTime();
+								Metrics.TICK_LATENESS.record(start - lastUpdate
+										- period);
+								GAME.update();
+								Metrics.UPDATE_TIME.record(System.nanoTime()
+										- start);
+							} else {
+								GAME.update();
+							}
+						}
+						lastUpdate += period;
+						updates++;
+					}
+					/* Drop the updates that are too late to catch up on */
+					if (now - lastUpdate >= period) {
+						if (Metrics.ENABLED)
+							Metrics.DROPPED_UPDATES.addAndGet((now - lastUpdate)
+									/ period);
+						lastUpdate = now;
+					}
+					GAME.render();
+				}
+			}
+		};
+		loop.setDaemon(true);
+		return loop;
+	}
+}
@@ -0,0 +1,104 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a game so that it can be replayed exactly. Since a simulation is
+ * determined by its board size, its seed and the directions it is given, only
+ * those are written:
+ *
+ * <pre>
+ * header:  "SNKR" version(1 byte) columns(varint) rows(varint) seed(8 bytes)
+ * turns:   tick delta(varint, at least 1) direction(1 byte)
+ * end:     0(varint) ticks after the last turn(varint)
+ * </pre>
+ *
+ * The tick delta is the number of ticks since the previous turn, so a turn
+ * usually takes two bytes. The output is buffered and written through a file
+ * channel.
+ */
+public class GameRecorder implements Closeable {
+
+	public static final int MAGIC = 0x534E4B52;
+	/* Version 2 picks the food among the free cells in the order of the cells */
+	public static final int VERSION = 2;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+	private long lastTick;
+	private boolean finished;
+
+	public GameRecorder(Path path, int columns, int rows, long seed)
+			throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		putVarint(columns);
+		putVarint(rows);
+		buffer.putLong(seed);
+	}
+
+	/**
+	 * Record that the given direction was passed to the simulation at the
+	 * given tick.
+	 *
+	 * @param tick
+	 *            the tick of the simulation after the step
+	 * @param direction
+	 * @throws IOException
+	 */
+	public synchronized void record(long tick, int direction)
+			throws IOException {
+		if (finished)
+			return;
+		if (buffer.remaining() < 11)
+			flush();
+		putVarint(tick - lastTick);
+		buffer.put((byte) direction);
+		lastTick = tick;
+	}
+
+	/**
+	 * Write the end of the game and close the file.
+	 *
+	 * @param tick
+	 *            the last tick of the simulation
+	 * @throws IOException
+	 */
+	public synchronized void finish(long tick) throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		if (buffer.remaining() < 11)
+			flush();
+		putVarint(0);
+		putVarint(tick - lastTick);
+		close();
+	}
+
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+		flush();
+		channel.close();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void putVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back a game written by GameRecorder. The replayer is a controller
+ * which gives a simulation the recorded directions at the recorded ticks, so
+ * it can drive a headless simulation at full speed, or the snake of the game
+ * panel at the normal pace.
+ */
+public class GameReplayer implements Controller {
+
+	private final ByteBuffer log;
+	private final int COLUMNS;
+	private final int ROWS;
+	private final long SEED;
+	private final long START;
+	/* The tick and the direction of the next turn, or -1 after the end */
+	private long nextTick;
+	private int nextDirection;
+	private long lastTick;
+
+	/**
+	 * Map the recorded file into memory and read its header.
+	 *
+	 * @param path
+	 * @throws IOException
+	 *             if the file cannot be read or is not a recorded game
+	 */
+	public GameReplayer(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (log.getInt() != GameRecorder.MAGIC
+					|| log.get() != GameRecorder.VERSION)
+				throw new IOException("Not a recorded game: " + path);
+			COLUMNS = (int) getVarint();
+			ROWS = (int) getVarint();
+			SEED = log.getLong();
+		} catch (RuntimeException e) {
+			throw new IOException("Broken recorded game: " + path, e);
+		}
+		START = log.position();
+		rewind();
+	}
+
+	public int getColumns() {
+		return COLUMNS;
+	}
+
+	public int getRows() {
+		return ROWS;
+	}
+
+	public long getSeed() {
+		return SEED;
+	}
+
+	/**
+	 * Create the simulation in which the recorded game was played.
+	 */
+	public Simulation newSimulation() {
+		return new Simulation(COLUMNS, ROWS, SEED);
+	}
+
+	/**
+	 * Go back to the first turn of the recorded game.
+	 */
+	public void rewind() {
+		log.position((int) START);
+		lastTick = 0;
+		readTurn();
+	}
+
+	public int nextDirection(Simulation simulation) {
+		if (simulation.getTick() + 1 != nextTick)
+			return Simulation.NONE;
+		int direction = nextDirection;
+		readTurn();
+		return direction;
+	}
+
+	/**
+	 * Whether the recorded game is over at the tick of the simulation. A
+	 * recording which was cut off ends after its last turn.
+	 */
+	public boolean isFinished(Simulation simulation) {
+		return nextTick < 0 && simulation.getTick() >= lastTick;
+	}
+
+	private void readTurn() {
+		nextTick = -1;
+		try {
+			if (!log.hasRemaining())
+				return;
+			long delta = getVarint();
+			if (delta == 0) {
+				/* The end of the game comes after the last turn */
+				lastTick += getVarint();
+				return;
+			}
+			int direction = log.get();
+			nextTick = lastTick + delta;
+			nextDirection = direction;
+			lastTick = nextTick;
+		} catch (BufferUnderflowException e) {
+			/* The recording was cut off in the middle of a turn */
+		}
+	}
+
+	private long getVarint() {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = log.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Replay the recorded game without any user interface as fast as
+	 * possible.
+	 *
+	 * @return the simulation at the end of the game
+	 */
+	public Simulation replay() {
+		rewind();
+		Simulation simulation = newSimulation();
+		while (!simulation.isOver() && !isFinished(simulation))
+			simulation.step(nextDirection(simulation));
+		return simulation;
+	}
+
+	/**
+	 * Replay the recorded games given as arguments headlessly and print their
+	 * results.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String file : args) {
+			GameReplayer replayer = new GameReplayer(Paths.get(file));
+			long start = System.nanoTime();
+			Simulation simulation = replayer.replay();
+			long time = System.nanoTime() - start;
+			System.out.println(file + ": score " + simulation.getScore()
+					+ ", " + simulation.getTick() + " ticks in " + time
+					/ 1000000 + " ms");
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * The states of a game. A new game starts running, a running game can be
+ * paused and unpaused, and a game can be stopped at any time before it is
+ * renewed.
+ */
+public enum GameState {
+
+	NEW, RUNNING, PAUSED, STOPPED;
+
+	/**
+	 * Check whether a game in this state is allowed to change to the next
+	 * state.
+	 *
+	 * @param next
+	 * @return true if the transition is legal
+	 */
+	public boolean canTransitionTo(GameState next) {
+		switch (this) {
+		case NEW:
+			return next == RUNNING || next == STOPPED;
+		case RUNNING:
+			return next == PAUSED || next == STOPPED;
+		case PAUSED:
+			return next == RUNNING || next == STOPPED;
+		case STOPPED:
+			return next == NEW;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Listens to the state changes of a game. It is notified on the thread
+	 * which made the change.
+	 */
+	public interface Listener {
+
+		void stateChanged(GameState from, GameState to);
+	}
+}
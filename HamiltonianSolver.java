@@ -0,0 +1,165 @@
+/**
+ * Plays a perfect game by following a Hamiltonian cycle, a closed path which
+ * visits every cell of the board once, so the snake never runs into itself
+ * and eventually fills the whole board. Such a cycle exists when the board
+ * has an even number of rows or columns; the solver walks the rows back and
+ * forth and returns along the first column (or the same with the columns).
+ *
+ * The cycle is computed once into two tables: the successor of each cell and
+ * the position of each cell on the cycle. While the snake is short, it may
+ * take a shortcut to a neighbouring cell further along the cycle, as long as
+ * it does not pass the food and leaves enough room before its tail, which
+ * keeps the body in the order of the cycle. Every decision is a few table
+ * lookups.
+ */
+public class HamiltonianSolver implements Controller {
+
+	private final int COLUMNS;
+	private final int ROWS;
+	private final int CELLS;
+	/* The cell after each cell on the cycle */
+	private final int[] successor;
+	/* The position of each cell on the cycle, from 0 at cell 0 */
+	private final int[] order;
+	private boolean shortcuts = true;
+
+	/**
+	 * Compute the cycle of a board.
+	 *
+	 * @param columns
+	 * @param rows
+	 * @throws IllegalArgumentException
+	 *             if both the columns and the rows are odd
+	 */
+	public HamiltonianSolver(int columns, int rows) {
+		if (columns % 2 != 0 && rows % 2 != 0 || columns < 2 || rows < 2)
+			throw new IllegalArgumentException("No Hamiltonian cycle on a "
+					+ columns + "x" + rows + " board");
+		COLUMNS = columns;
+		ROWS = rows;
+		CELLS = columns * rows;
+		successor = new int[CELLS];
+		order = new int[CELLS];
+		boolean evenRows = rows % 2 == 0;
+		/* Along the rows if there are even rows, else along the columns */
+		int width = evenRows ? columns : rows;
+		int height = evenRows ? rows : columns;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int nextX = x;
+				int nextY = y;
+				if (x == 0) {
+					if (y == 0)
+						nextX = 1;
+					else
+						nextY = y - 1;
+				} else if (y % 2 == 0) {
+					if (x < width - 1)
+						nextX = x + 1;
+					else
+						nextY = y + 1;
+				} else if (x > 1 || y == height - 1) {
+					nextX = x - 1;
+				} else {
+					nextY = y + 1;
+				}
+				successor[cellOf(x, y, evenRows)] = cellOf(nextX, nextY,
+						evenRows);
+			}
+		}
+		int cell = 0;
+		for (int i = 0; i < CELLS; i++) {
+			order[cell] = i;
+			cell = successor[cell];
+		}
+	}
+
+	private int cellOf(int x, int y, boolean evenRows) {
+		return evenRows ? y * COLUMNS + x : x * COLUMNS + y;
+	}
+
+	/**
+	 * Whether boards of the given size have a cycle to follow.
+	 */
+	public static boolean isSolvable(int columns, int rows) {
+		return columns >= 2 && rows >= 2 && (columns % 2 == 0 || rows % 2 == 0);
+	}
+
+	public int getSuccessor(int cell) {
+		return successor[cell];
+	}
+
+	public int getOrder(int cell) {
+		return order[cell];
+	}
+
+	public boolean isShortcuts() {
+		return shortcuts;
+	}
+
+	/**
+	 * Allow or forbid the shortcuts. Without them, the snake follows the
+	 * whole cycle every time.
+	 */
+	public void setShortcuts(boolean shortcuts) {
+		this.shortcuts = shortcuts;
+	}
+
+	public int nextDirection(Simulation simulation) {
+		Board board = simulation.getBoard();
+		if (board.getColumns() != COLUMNS || board.getRows() != ROWS)
+			throw new IllegalArgumentException("The cycle is for a " + COLUMNS
+					+ "x" + ROWS + " board");
+		SnakeBody body = simulation.getBody();
+		int head = body.getHead();
+		int next = successor[head];
+
+		int length = body.size();
+		int food = simulation.getFood();
+		if (shortcuts && food >= 0) {
+			int toTail = distance(head, body.getTail());
+			int toFood = distance(head, food);
+			int empty = CELLS - length - 1;
+			/* Leave room before the tail for growing while the food is eaten */
+			int cut = toTail - length - 3;
+			if (empty < CELLS / 2) {
+				cut = 0;
+			} else if (toFood < toTail) {
+				cut -= 1;
+				if ((toTail - toFood) * 4 > empty)
+					cut -= 10;
+			}
+			cut = Math.min(cut, toFood);
+			int best = 1;
+			for (int direction = 0; direction < 4; direction++) {
+				int cell = simulation.nextCell(direction);
+				if (simulation.isDead(cell))
+					continue;
+				int ahead = distance(head, cell);
+				if (ahead <= cut && ahead > best) {
+					best = ahead;
+					next = cell;
+				}
+			}
+		}
+
+		/*
+		 * Only the start of a game, before the body lies along the cycle, can
+		 * block the cycle; go anywhere else then.
+		 */
+		if (simulation.isDead(next)) {
+			for (int direction = 0; direction < 4; direction++) {
+				int cell = simulation.nextCell(direction);
+				if (!simulation.isDead(cell))
+					return direction;
+			}
+		}
+		return simulation.directionTo(next);
+	}
+
+	/* How far the cell b is ahead of the cell a on the cycle */
+	private int distance(int a, int b) {
+		int d = order[b] - order[a];
+		return d < 0 ? d + CELLS : d;
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of direction inputs from one producer thread (the key
+ * listener) to one consumer thread (the game loop). Each input carries the
+ * System.nanoTime at which it arrived, so that the delay until it is applied
+ * by a tick can be measured. The queue holds primitive values in
+ * preallocated arrays and never locks or allocates.
+ */
+public class InputQueue {
+
+	/* The most recent inputs considered by a tick */
+	private static final int KEEP = 3;
+
+	private final int[] directions;
+	private final long[] stamps;
+	private final int mask;
+	/* The next slot to read, written only by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/* The next slot to write, written only by the producer */
+	private final AtomicLong tail = new AtomicLong();
+	private long polledStamp;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	public InputQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, KEEP) - 1) << 1;
+		directions = new int[size];
+		stamps = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Add an input. Called by the producer thread only.
+	 *
+	 * @param direction
+	 * @param nanoTime
+	 * @return false if the queue is full and the input is dropped
+	 */
+	public boolean offer(int direction, long nanoTime) {
+		long t = tail.get();
+		if (t - head.get() > mask)
+			return false;
+		int index = (int) t & mask;
+		directions[index] = direction;
+		stamps[index] = nanoTime;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Take the next direction to turn to. Only the last 3 inputs are cared
+	 * about, and inputs which repeat or reverse the current direction are
+	 * omitted. Called by the consumer thread only.
+	 *
+	 * @param current
+	 *            the current direction of the snake
+	 * @return the new direction, or Simulation.NONE if there is none
+	 */
+	public int poll(int current) {
+		long t = tail.get();
+		long h = head.get();
+		if (t - h > KEEP)
+			h = t - KEEP;
+		int reverse = Simulation.reverse(current);
+		while (h < t) {
+			int direction = directions[(int) h & mask];
+			if (direction != current && direction != reverse)
+				break;
+			h++;
+		}
+		if (h == t) {
+			head.lazySet(h);
+			return Simulation.NONE;
+		}
+		int index = (int) h & mask;
+		polledStamp = stamps[index];
+		head.lazySet(h + 1);
+		return directions[index];
+	}
+
+	/**
+	 * The arrival time of the input last returned by poll.
+	 */
+	public long getPolledStamp() {
+		return polledStamp;
+	}
+
+	/**
+	 * Drop all the inputs. Called by the consumer thread only.
+	 */
+	public void clear() {
+		head.lazySet(tail.get());
+	}
+}
@@ -0,0 +1,137 @@
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations in nanoseconds into a histogram of log-linear buckets,
+ * the way HdrHistogram does: every power of two is split into 16 buckets, so
+ * any recorded value is reported within about 6% of its real value. Recording
+ * only increments counters and is safe from any number of threads without
+ * locking.
+ */
+public class LatencyRecorder {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos));
+		total.addAndGet(nanos);
+		long current;
+		while (nanos > (current = max.get())
+				&& !max.compareAndSet(current, nanos))
+			;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Take a summary of the recorded values. Values recorded while the
+	 * snapshot is taken may or may not be included.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		long maximum = max.get();
+		double mean = count == 0 ? 0 : (double) total.get() / count;
+		return new Snapshot(count, mean, percentile(copy, count, 0.5,
+				maximum), percentile(copy, count, 0.9, maximum), percentile(
+				copy, count, 0.99, maximum), maximum);
+	}
+
+	private static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/* The highest value which falls into the bucket */
+	private static long highestOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	private static long percentile(long[] counts, long count, double fraction,
+			long max) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestOf(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * A summary of the recorded values, in nanoseconds.
+	 */
+	public static class Snapshot {
+
+		private final long count;
+		private final double mean;
+		private final long p50, p90, p99, max;
+
+		@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+		public Snapshot(long count, double mean, long p50, long p90, long p99,
+				long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public String toString() {
+			return String.format("p50 %.2f  p99 %.2f  max %.2f ms", p50 / 1e6,
+					p99 / 1e6, max / 1e6);
+		}
+	}
+}
@@ -0,0 +1,378 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The best scores of every difficulty and board size, kept on disk across
+ * games. Every submitted score is appended to a journal file which is mapped
+ * into memory. Each record carries a checksum, so a record that was only half
+ * written when the game crashed is ignored when the journal is loaded. When
+ * the journal grows too long it is compacted: the best scores are written to
+ * a new file which then atomically replaces the journal, once the journal is
+ * unmapped. Only one game at a time may use the journal: it holds an
+ * exclusive lock on a file next to it, which stays the same when the
+ * journal is replaced.
+ *
+ * In memory, the best TOP_N scores of each difficulty and board size are kept
+ * in a sorted concurrent set, so adding a score takes O(log N) and reading the
+ * scoreboard never waits. All the writes happen on a background thread, so
+ * submitting a score never blocks the caller.
+ */
+public class Leaderboard {
+
+	public static final int TOP_N = 10;
+	public static final List<String> DIFFICULTIES = Arrays.asList("Easy",
+			"Medium", "Hard", "Extreme");
+
+	private static final int MAGIC = 0x534E4B53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	/*
+	 * difficulty(1) reserved(1) columns(2) rows(2) reserved(2) score(4)
+	 * time(8) checksum(4)
+	 */
+	private static final int RECORD_SIZE = 24;
+	private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+	private static final int MAPPING_STEP = 1 << 16;
+	private static final int COMPACT_THRESHOLD = 1 << 16;
+	/* The longest close() waits for the scores to be written */
+	private static final long CLOSE_TIMEOUT = 5;
+
+	private final Path PATH;
+	private final ConcurrentHashMap<Long, ConcurrentSkipListSet<Entry>> tables = new ConcurrentHashMap<Long, ConcurrentSkipListSet<Entry>>();
+	private final ExecutorService writer = Executors
+			.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "Leaderboard Writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private final CRC32 crc = new CRC32();
+	private final byte[] record = new byte[RECORD_SIZE];
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private FileChannel channel;
+	private MappedByteBuffer journal;
+	private int records;
+	private long sequence;
+
+	/**
+	 * Open the journal at the path, creating it if it does not exist, and
+	 * load the best scores from it.
+	 *
+	 * @param path
+	 * @throws IOException
+	 *             if the journal cannot be read, or another game uses it
+	 */
+	public Leaderboard(Path path) throws IOException {
+		this.PATH = path;
+		if (path.getParent() != null)
+			Files.createDirectories(path.getParent());
+		lockChannel = FileChannel.open(
+				path.resolveSibling(path.getFileName() + ".lock"),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock locked = null;
+		try {
+			locked = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+		}
+		if (locked == null) {
+			lockChannel.close();
+			throw new IOException("The leaderboard is used by another game: "
+					+ path);
+		}
+		lock = locked;
+		try {
+			open();
+			load();
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Add a score to the leaderboard. The score is written to the journal on
+	 * the background thread, and the method returns immediately.
+	 */
+	public void submit(String difficulty, int columns, int rows, int score,
+			long time) {
+		int level = DIFFICULTIES.indexOf(difficulty);
+		if (level < 0)
+			return;
+		try {
+			writer.execute(() -> {
+				add(level, columns, rows, score, time);
+				try {
+					append(level, columns, rows, score, time);
+				} catch (IOException e) {
+					System.err.println("Cannot save the score: " + e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			System.err.println("Cannot save the score: the leaderboard is "
+					+ "closed");
+		}
+	}
+
+	/**
+	 * Get the best scores of a difficulty and board size, the best first.
+	 */
+	public List<Entry> getTop(String difficulty, int columns, int rows) {
+		ConcurrentSkipListSet<Entry> table = tables.get(keyOf(
+				DIFFICULTIES.indexOf(difficulty), columns, rows));
+		if (table == null)
+			return new ArrayList<Entry>();
+		return new ArrayList<Entry>(table);
+	}
+
+	/**
+	 * Wait for the submitted scores to be written, for a few seconds at
+	 * most, then close the journal and release the lock. Scores submitted
+	 * later are not saved.
+	 */
+	public void close() {
+		try {
+			writer.execute(this::release);
+		} catch (RejectedExecutionException e) {
+			return;
+		}
+		writer.shutdown();
+		try {
+			writer.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Unmap and close the journal, and release the lock */
+	private void release() {
+		try {
+			if (journal != null) {
+				unmap(journal);
+				journal = null;
+			}
+			if (channel != null)
+				channel.close();
+			lock.release();
+			lockChannel.close();
+		} catch (IOException e) {
+			System.err.println("Cannot close the leaderboard: " + e);
+		}
+	}
+
+	private static long keyOf(int level, int columns, int rows) {
+		return ((long) level << 40) | ((long) columns << 20) | rows;
+	}
+
+	private void add(int level, int columns, int rows, int score, long time) {
+		ConcurrentSkipListSet<Entry> table = tables.computeIfAbsent(
+				keyOf(level, columns, rows),
+				key -> new ConcurrentSkipListSet<Entry>());
+		if (table.size() >= TOP_N && score <= table.last().getScore())
+			return;
+		table.add(new Entry(score, time, sequence++));
+		if (table.size() > TOP_N)
+			table.pollLast();
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(PATH, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.write(header, 0);
+			channel.force(true);
+		}
+		map(channel.size());
+		if (journal.getInt(0) != MAGIC || journal.getInt(4) != VERSION)
+			throw new IOException("Not a leaderboard: " + PATH);
+	}
+
+	/* Map at least the given number of bytes of the journal */
+	private void map(long size) throws IOException {
+		long mapped = (size + MAPPING_STEP - 1) / MAPPING_STEP * MAPPING_STEP;
+		MappedByteBuffer old = journal;
+		journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapped);
+		if (old != null)
+			unmap(old);
+	}
+
+	/*
+	 * Release the mapping at once instead of when the buffer is collected, so
+	 * the file can be replaced, which a mapping prevents on some systems. The
+	 * buffer must not be used afterwards.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			/* Java 9 and later */
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+			unsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(
+					unsafe.get(null), buffer);
+			return;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+		}
+		try {
+			/* Java 8 */
+			Method cleanerOf = buffer.getClass().getMethod("cleaner");
+			cleanerOf.setAccessible(true);
+			Object cleaner = cleanerOf.invoke(buffer);
+			if (cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			/* The mapping is released when the buffer is collected */
+		}
+	}
+
+	/**
+	 * Read the records of the journal until the first one which is empty or
+	 * broken, where the next record will be written.
+	 */
+	private void load() {
+		records = 0;
+		int position = HEADER_SIZE;
+		while (position + RECORD_SIZE <= journal.capacity()) {
+			journal.position(position);
+			journal.get(record);
+			if (!isValid(record))
+				break;
+			ByteBuffer r = ByteBuffer.wrap(record);
+			add(r.get(0), r.getShort(2) & 0xFFFF, r.getShort(4) & 0xFFFF,
+					r.getInt(8), r.getLong(12));
+			records++;
+			position += RECORD_SIZE;
+		}
+	}
+
+	private boolean isValid(byte[] record) {
+		ByteBuffer r = ByteBuffer.wrap(record);
+		if (r.getLong(12) == 0)
+			return false;
+		crc.reset();
+		crc.update(record, 0, CHECKED_SIZE);
+		return r.getInt(CHECKED_SIZE) == (int) crc.getValue();
+	}
+
+	private void append(int level, int columns, int rows, int score, long time)
+			throws IOException {
+		if (records >= COMPACT_THRESHOLD) {
+			compact();
+		}
+		int position = HEADER_SIZE + records * RECORD_SIZE;
+		if (position + RECORD_SIZE > journal.capacity())
+			map(position + RECORD_SIZE);
+		ByteBuffer r = ByteBuffer.wrap(record);
+		r.put(0, (byte) level).put(1, (byte) 0)
+				.putShort(2, (short) columns).putShort(4, (short) rows)
+				.putShort(6, (short) 0).putInt(8, score).putLong(12, time);
+		crc.reset();
+		crc.update(record, 0, CHECKED_SIZE);
+		r.putInt(CHECKED_SIZE, (int) crc.getValue());
+		journal.position(position);
+		journal.put(record);
+		journal.force();
+		records++;
+	}
+
+	/**
+	 * Replace the journal with one holding only the best scores.
+	 */
+	private void compact() throws IOException {
+		Path temporary = PATH.resolveSibling(PATH.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + RECORD_SIZE
+					* tables.size() * TOP_N);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			for (Long key : tables.keySet()) {
+				for (Entry entry : tables.get(key)) {
+					ByteBuffer r = ByteBuffer.wrap(record);
+					r.put(0, (byte) (key >>> 40)).put(1, (byte) 0)
+							.putShort(2, (short) ((key >>> 20) & 0xFFFFF))
+							.putShort(4, (short) (key & 0xFFFFF))
+							.putShort(6, (short) 0)
+							.putInt(8, entry.getScore())
+							.putLong(12, entry.getTime());
+					crc.reset();
+					crc.update(record, 0, CHECKED_SIZE);
+					r.putInt(CHECKED_SIZE, (int) crc.getValue());
+					buffer.put(record);
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				out.write(buffer);
+			out.force(true);
+		}
+		unmap(journal);
+		journal = null;
+		channel.close();
+		Files.move(temporary, PATH, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		open();
+		records = 0;
+		while (HEADER_SIZE + (records + 1) * RECORD_SIZE <= journal.capacity()) {
+			journal.position(HEADER_SIZE + records * RECORD_SIZE);
+			journal.get(record);
+			if (!isValid(record))
+				break;
+			records++;
+		}
+	}
+
+	/**
+	 * A score on the leaderboard and the time it was made, in milliseconds
+	 * since the epoch. Entries are ordered from the best score, and the
+	 * earlier of equal scores first.
+	 */
+	public static class Entry implements Comparable<Entry> {
+
+		private final int score;
+		private final long time;
+		private final long order;
+
+		Entry(int score, long time, long order) {
+			this.score = score;
+			this.time = time;
+			this.order = order;
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public int compareTo(Entry other) {
+			if (score != other.score)
+				return Integer.compare(other.score, score);
+			if (time != other.time)
+				return Long.compare(time, other.time);
+			return Long.compare(order, other.order);
+		}
+	}
+}
@@ -0,0 +1,469 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A board with walls and portals. The walls are kept as a bitmap in the
+ * layout of the words of Board, so a board of the level starts with the
+ * walls occupied: running into one is the same single bit test as running
+ * into the body, and the food is only ever placed among the other cells. A
+ * portal is a pair of cells; moving into one end comes out of the other end,
+ * going on in the same direction. The ends of the portals are occupied on
+ * the board too, and Simulation.nextCell() steps over them. So are the free
+ * cells which the snake cannot reach from the start, such as the cells
+ * outside a room of walls, so that no food is placed there.
+ *
+ * The distance from any cell to any other, through the walls and portals but
+ * ignoring the snake, is kept in distance fields computed breadth first. For
+ * small levels all the fields are computed at load time. Larger levels keep
+ * none, as they would take too much memory, and computeDistances() fills the
+ * field of one target into arrays of the caller, so each simulation keeps
+ * the field of its own food without sharing or locking anything.
+ *
+ * A level file has a header in big-endian order followed by the bitmap of
+ * the walls as little-endian longs, the same as the words of Board, so it is
+ * memory-mapped and copied with one bulk read:
+ *
+ * <pre>
+ * int  MAGIC
+ * byte VERSION
+ * int  columns
+ * int  rows
+ * int  the cell of the head at the start
+ * byte the direction at the start
+ * int  the number of portals
+ * int  the two cells of each portal
+ * long the walls, bit i % 64 of word i / 64 set if cell i is a wall
+ * </pre>
+ *
+ * Levels can also be drawn as text, see parse().
+ */
+public class Level {
+
+	public static final int MAGIC = 0x534E4B4C;
+	public static final int VERSION = 1;
+
+	/* All the distance fields are computed at load time up to this many ints */
+	private static final int PRECOMPUTE_BUDGET = 1 << 22;
+
+	private final int COLUMNS;
+	private final int ROWS;
+	private final int CELLS;
+	private final int START;
+	private final int START_DIRECTION;
+	private final long[] walls;
+	/*
+	 * The walls, the ends of the portals and the cells which cannot be
+	 * reached, which are occupied on a board
+	 */
+	private final long[] fixed;
+	/* The two ends of each portal, one after the other */
+	private final int[] portals;
+	/* Open addressed table from the end of a portal to the other end */
+	private final int[] portalCells;
+	private final int[] partners;
+	private final int shift;
+	/* The distance field of each target, or null on a large level */
+	private final int[][] fields;
+
+	/**
+	 * @param columns
+	 * @param rows
+	 * @param start
+	 *            the cell of the head at the start
+	 * @param direction
+	 *            the direction at the start
+	 * @param portals
+	 *            the two ends of each portal, one after the other
+	 * @param walls
+	 *            the bitmap of the walls, in the layout of the words of Board
+	 * @throws IllegalArgumentException
+	 *             if the cells do not fit together
+	 */
+	public Level(int columns, int rows, int start, int direction,
+			int[] portals, long[] walls) {
+		if (columns <= 0 || rows <= 0
+				|| (long) columns * rows > Integer.MAX_VALUE - 63)
+			throw new IllegalArgumentException("Bad level size: " + columns
+					+ "x" + rows);
+		COLUMNS = columns;
+		ROWS = rows;
+		CELLS = columns * rows;
+		int wordCount = (CELLS + 63) >>> 6;
+		if (walls.length != wordCount || portals.length % 2 != 0)
+			throw new IllegalArgumentException("Bad level data");
+		this.walls = walls.clone();
+		int padding = (wordCount << 6) - CELLS;
+		if (padding > 0)
+			this.walls[wordCount - 1] &= -1L >>> padding;
+		this.portals = portals.clone();
+		fixed = this.walls.clone();
+
+		int size = Integer
+				.highestOneBit(Math.max(portals.length, 1) * 2 - 1) << 1;
+		portalCells = new int[size];
+		partners = new int[size];
+		Arrays.fill(portalCells, -1);
+		shift = 32 - Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < portals.length; i++) {
+			int cell = portals[i];
+			if (cell < 0 || cell >= CELLS || isFixed(cell))
+				throw new IllegalArgumentException("Bad portal at cell "
+						+ cell);
+			fixed[cell >>> 6] |= 1L << cell;
+			int slot = slotOf(cell);
+			portalCells[slot] = cell;
+			partners[slot] = portals[i ^ 1];
+		}
+
+		if (direction < 0 || direction > 3)
+			throw new IllegalArgumentException("Bad direction: " + direction);
+		START = start;
+		START_DIRECTION = direction;
+		int tail = neighbour(start, Simulation.reverse(direction));
+		if (start < 0 || start >= CELLS || isFixed(start) || tail < 0
+				|| isFixed(tail))
+			throw new IllegalArgumentException("No room for the snake at cell "
+					+ start);
+		fixUnreachable();
+
+		if ((long) CELLS * CELLS <= PRECOMPUTE_BUDGET) {
+			fields = new int[CELLS][];
+			int[] queue = new int[CELLS];
+			for (int target = 0; target < CELLS; target++) {
+				fields[target] = new int[CELLS];
+				computeDistances(target, fields[target], queue);
+			}
+		} else {
+			fields = null;
+		}
+	}
+
+	/**
+	 * Map the level file into memory and read it.
+	 *
+	 * @param path
+	 * @throws IOException
+	 *             if the file cannot be read or is not a level
+	 */
+	public static Level load(Path path) throws IOException {
+		ByteBuffer data;
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			data = channel
+					.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (data.getInt() != MAGIC || data.get() != VERSION)
+				throw new IOException("Not a level: " + path);
+			int columns = data.getInt();
+			int rows = data.getInt();
+			int start = data.getInt();
+			int direction = data.get();
+			int count = data.getInt();
+			if (count < 0 || count > data.remaining() / 8)
+				throw new IOException("Broken level: " + path);
+			int[] portals = new int[count * 2];
+			data.asIntBuffer().get(portals);
+			data.position(data.position() + portals.length * 4);
+			/* Check the size in the header before allocating for it */
+			long words = ((long) columns * rows + 63) >>> 6;
+			if (columns <= 0 || rows <= 0 || data.remaining() < words * 8)
+				throw new IOException("Broken level: " + path);
+			long[] walls = new long[(int) words];
+			data.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(walls);
+			return new Level(columns, rows, start, direction, portals, walls);
+		} catch (RuntimeException e) {
+			throw new IOException("Broken level: " + path, e);
+		}
+	}
+
+	/**
+	 * Write the level into a file which load() reads.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(22 + portals.length * 4);
+		header.putInt(MAGIC).put((byte) VERSION).putInt(COLUMNS)
+				.putInt(ROWS).putInt(START).put((byte) START_DIRECTION)
+				.putInt(portals.length / 2);
+		for (int cell : portals)
+			header.putInt(cell);
+		header.flip();
+		ByteBuffer bitmap = ByteBuffer.allocate(walls.length * 8).order(
+				ByteOrder.LITTLE_ENDIAN);
+		bitmap.asLongBuffer().put(walls);
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining())
+				channel.write(header);
+			while (bitmap.hasRemaining())
+				channel.write(bitmap);
+		}
+	}
+
+	/**
+	 * Read a level drawn as text, one line per row: '#' is a wall, the head
+	 * of the snake is one of '^', '>', 'v' and '<' pointing where it goes,
+	 * and each letter or digit which is found twice is a portal between the
+	 * two cells. Anything else is free, and short lines are filled with free
+	 * cells.
+	 *
+	 * @param lines
+	 * @throws IllegalArgumentException
+	 *             if the level does not fit together
+	 */
+	public static Level parse(List<String> lines) {
+		int rows = lines.size();
+		int columns = 0;
+		for (String line : lines)
+			columns = Math.max(columns, line.length());
+		if (columns < 3 || rows < 1)
+			throw new IllegalArgumentException("Level too small");
+		long[] walls = new long[(int) (((long) columns * rows + 63) >>> 6)];
+		int[] firstEnds = new int[128];
+		Arrays.fill(firstEnds, -1);
+		int[] portals = new int[0];
+		int start = -1;
+		int direction = Simulation.LEFT;
+		for (int row = 0; row < rows; row++) {
+			String line = lines.get(row);
+			for (int column = 0; column < line.length(); column++) {
+				char c = line.charAt(column);
+				int cell = row * columns + column;
+				int heading = "^>v<".indexOf(c);
+				if (c == '#') {
+					walls[cell >>> 6] |= 1L << cell;
+				} else if (heading >= 0) {
+					if (start >= 0)
+						throw new IllegalArgumentException("Two snakes");
+					start = cell;
+					direction = heading;
+				} else if (Character.isLetterOrDigit(c) && c < 128) {
+					if (firstEnds[c] < 0) {
+						firstEnds[c] = cell;
+					} else {
+						portals = Arrays.copyOf(portals, portals.length + 2);
+						portals[portals.length - 2] = firstEnds[c];
+						portals[portals.length - 1] = cell;
+						firstEnds[c] = -1;
+					}
+				}
+			}
+		}
+		if (start < 0)
+			start = (rows / 2) * columns + columns / 2;
+		return new Level(columns, rows, start, direction, portals, walls);
+	}
+
+	public int getColumns() {
+		return COLUMNS;
+	}
+
+	public int getRows() {
+		return ROWS;
+	}
+
+	public int getStart() {
+		return START;
+	}
+
+	public int getStartDirection() {
+		return START_DIRECTION;
+	}
+
+	/**
+	 * Create an empty board of the level, with the walls and the ends of the
+	 * portals occupied.
+	 */
+	public Board newBoard() {
+		return new Board(COLUMNS, ROWS, fixed);
+	}
+
+	public boolean isWall(int cell) {
+		return (walls[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * The first wall at or after the cell, or -1 if there is none.
+	 */
+	public int nextWall(int cell) {
+		if (cell >= CELLS)
+			return -1;
+		int word = cell >>> 6;
+		long bits = walls[word] & (-1L << cell);
+		while (bits == 0) {
+			if (++word == walls.length)
+				return -1;
+			bits = walls[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	public int getPortalCount() {
+		return portals.length / 2;
+	}
+
+	/**
+	 * One of the two ends of the i-th portal.
+	 *
+	 * @param i
+	 * @param end
+	 *            0 or 1
+	 */
+	public int getPortal(int i, int end) {
+		return portals[2 * i + end];
+	}
+
+	/**
+	 * The other end of the portal at the cell, or -1 if there is no portal.
+	 */
+	public int getPartner(int cell) {
+		int slot = slotOf(cell);
+		return portalCells[slot] == cell ? partners[slot] : -1;
+	}
+
+	/**
+	 * The cell which a move from the cell in the direction ends up in,
+	 * through a portal if it leads into one.
+	 *
+	 * @return the cell, or -1 if the move leaves the board
+	 */
+	public int step(int cell, int direction) {
+		int next = neighbour(cell, direction);
+		if (next >= 0 && (fixed[next >>> 6] & (1L << next)) != 0) {
+			int partner = getPartner(next);
+			/* Past the other end may be a wall or a portal to run into */
+			if (partner >= 0)
+				next = neighbour(partner, direction);
+		}
+		return next;
+	}
+
+	/**
+	 * Whether the distance fields of all the targets were computed at load
+	 * time, which they are unless the level is large.
+	 */
+	public boolean hasDistanceFields() {
+		return fields != null;
+	}
+
+	/**
+	 * The number of moves from the cell to the target through the free cells
+	 * of the level, ignoring the snake, looked up in the distance fields.
+	 *
+	 * @return the number of moves, or -1 if the target cannot be reached
+	 * @throws IllegalStateException
+	 *             if the level has no distance fields, see
+	 *             computeDistances()
+	 */
+	public int getDistance(int target, int cell) {
+		if (fields == null)
+			throw new IllegalStateException("No distance fields on a "
+					+ COLUMNS + "x" + ROWS + " level");
+		return fields[target][cell];
+	}
+
+	/**
+	 * Compute the distance field of the target breadth first, without
+	 * allocating. The moves through a portal can be taken backwards, so the
+	 * distances from the target are the distances to it.
+	 *
+	 * @param target
+	 * @param field
+	 *            receives the number of moves from each cell to the target,
+	 *            or -1 if it cannot be reached, CELLS ints
+	 * @param queue
+	 *            the queue of the search, CELLS ints
+	 */
+	public void computeDistances(int target, int[] field, int[] queue) {
+		Arrays.fill(field, -1);
+		if (isFixed(target))
+			return;
+		field[target] = 0;
+		queue[0] = target;
+		int end = 1;
+		for (int head = 0; head < end; head++) {
+			int cell = queue[head];
+			for (int direction = 0; direction < 4; direction++) {
+				int next = step(cell, direction);
+				if (next < 0 || field[next] >= 0 || isFixed(next))
+					continue;
+				field[next] = field[cell] + 1;
+				queue[end++] = next;
+			}
+		}
+	}
+
+	/*
+	 * Make the free cells which cannot be reached from the start fixed,
+	 * searching breadth first through the portals.
+	 */
+	private void fixUnreachable() {
+		long[] reached = new long[fixed.length];
+		int[] queue = new int[CELLS];
+		reached[START >>> 6] |= 1L << START;
+		queue[0] = START;
+		int end = 1;
+		for (int head = 0; head < end; head++) {
+			int cell = queue[head];
+			for (int direction = 0; direction < 4; direction++) {
+				int next = step(cell, direction);
+				if (next < 0 || isFixed(next)
+						|| (reached[next >>> 6] & (1L << next)) != 0)
+					continue;
+				reached[next >>> 6] |= 1L << next;
+				queue[end++] = next;
+			}
+		}
+		int padding = (fixed.length << 6) - CELLS;
+		for (int word = 0; word < fixed.length; word++) {
+			long unreached = ~(fixed[word] | reached[word]);
+			if (word == fixed.length - 1 && padding > 0)
+				unreached &= -1L >>> padding;
+			fixed[word] |= unreached;
+		}
+	}
+
+	private boolean isFixed(int cell) {
+		return (fixed[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	private int neighbour(int cell, int direction) {
+		int column = cell % COLUMNS + Simulation.dx(direction);
+		int row = cell / COLUMNS + Simulation.dy(direction);
+		if (column < 0 || column >= COLUMNS || row < 0 || row >= ROWS)
+			return -1;
+		return row * COLUMNS + column;
+	}
+
+	private int slotOf(int cell) {
+		int slot = (cell * 0x9E3779B9) >>> shift;
+		while (portalCells[slot] >= 0 && portalCells[slot] != cell)
+			slot = (slot + 1) & (portalCells.length - 1);
+		return slot;
+	}
+
+	/**
+	 * Convert a level drawn as text into a level file: Level TEXT FILE.
+	 */
+	public static void main(String[] args) throws IOException {
+		Level level = parse(Files.readAllLines(Paths.get(args[0]),
+				StandardCharsets.UTF_8));
+		level.write(Paths.get(args[1]));
+		System.out.println(level.getColumns() + "x" + level.getRows()
+				+ " level with " + level.getPortalCount() + " portals written to "
+				+ args[1]);
+	}
+}
@@ -0,0 +1,136 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Timing measurements of the game loop: how late the ticks fire compared to
+ * their schedule, how long updating and rendering take, how long key inputs
+ * wait until a tick applies them, and how many updates are dropped because
+ * the loop fell too far behind. Measuring is turned on with the system
+ * property snake.metrics=true; when it is off, every check of ENABLED is a
+ * constant false and the measuring code is compiled away.
+ */
+public class Metrics {
+
+	public static final boolean ENABLED = Boolean.getBoolean("snake.metrics");
+
+	public static final LatencyRecorder TICK_LATENESS = new LatencyRecorder();
+	public static final LatencyRecorder UPDATE_TIME = new LatencyRecorder();
+	public static final LatencyRecorder RENDER_TIME = new LatencyRecorder();
+	public static final LatencyRecorder INPUT_LATENCY = new LatencyRecorder();
+	public static final AtomicLong DROPPED_UPDATES = new AtomicLong();
+	public static final AtomicLong FOOD_EATEN = new AtomicLong();
+	public static final AtomicLong DEATHS = new AtomicLong();
+
+	private static boolean registered;
+
+	private Metrics() {
+	}
+
+	/**
+	 * Register the measurements with the platform MBean server under
+	 * "snake:type=Metrics", if measuring is enabled.
+	 */
+	public static synchronized void register() {
+		if (!ENABLED || registered)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new Bean(), new ObjectName("snake:type=Metrics"));
+			registered = true;
+		} catch (JMException e) {
+			System.err.println("Cannot register metrics: " + e);
+		}
+	}
+
+	public static void reset() {
+		TICK_LATENESS.reset();
+		UPDATE_TIME.reset();
+		RENDER_TIME.reset();
+		INPUT_LATENCY.reset();
+		DROPPED_UPDATES.set(0);
+		FOOD_EATEN.set(0);
+		DEATHS.set(0);
+	}
+
+	/**
+	 * Count the game events, if measuring is enabled.
+	 */
+	public static void subscribe(GameEventBus events) {
+		if (!ENABLED)
+			return;
+		events.subscribe(event -> {
+			if (event.getType() == GameEvent.Type.FOOD_EATEN)
+				FOOD_EATEN.incrementAndGet();
+			else
+				DEATHS.incrementAndGet();
+		}, Runnable::run, GameEvent.Type.FOOD_EATEN, GameEvent.Type.DEATH);
+	}
+
+	/**
+	 * The lines of text shown by the on-screen overlay.
+	 */
+	public static String[] overlayLines() {
+		return new String[] { "tick late  " + TICK_LATENESS.snapshot(),
+				"update     " + UPDATE_TIME.snapshot(),
+				"render     " + RENDER_TIME.snapshot(),
+				"input      " + INPUT_LATENCY.snapshot(),
+				"dropped    " + DROPPED_UPDATES.get() };
+	}
+
+	public interface MetricsMXBean {
+
+		LatencyRecorder.Snapshot getTickLateness();
+
+		LatencyRecorder.Snapshot getUpdateTime();
+
+		LatencyRecorder.Snapshot getRenderTime();
+
+		LatencyRecorder.Snapshot getInputLatency();
+
+		long getDroppedUpdates();
+
+		long getFoodEaten();
+
+		long getDeaths();
+
+		void reset();
+	}
+
+	private static class Bean implements MetricsMXBean {
+
+		public LatencyRecorder.Snapshot getTickLateness() {
+			return TICK_LATENESS.snapshot();
+		}
+
+		public LatencyRecorder.Snapshot getUpdateTime() {
+			return UPDATE_TIME.snapshot();
+		}
+
+		public LatencyRecorder.Snapshot getRenderTime() {
+			return RENDER_TIME.snapshot();
+		}
+
+		public LatencyRecorder.Snapshot getInputLatency() {
+			return INPUT_LATENCY.snapshot();
+		}
+
+		public long getDroppedUpdates() {
+			return DROPPED_UPDATES.get();
+		}
+
+		public long getFoodEaten() {
+			return FOOD_EATEN.get();
+		}
+
+		public long getDeaths() {
+			return DEATHS.get();
+		}
+
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+}
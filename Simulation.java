@@ -0,0 +1,364 @@
+import java.util.Random;
+
+/**
+ * The rules of the game without any user interface. A simulation is created
+ * from a board size and a seed, and advanced one tick at a time by giving it
+ * the direction to move in. Given the same seed and the same directions, a
+ * simulation always plays out the same way. A simulation may be played on a
+ * Level, with walls and portals, instead of an empty board.
+ */
+public class Simulation {
+
+	public static final int UP = 0;
+	public static final int RIGHT = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 3;
+	/* Keep moving in the current direction */
+	public static final int NONE = -1;
+
+	/* The results of a tick */
+	public static final int MOVED = 0;
+	public static final int ATE = 1;
+	public static final int DIED = 2;
+	/* The snake fills the whole board */
+	public static final int WON = 3;
+
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { -1, 0, 1, 0 };
+
+	private final Board board;
+	/* The level of the board, or null for an empty board */
+	private final Level level;
+	private final SnakeBody body;
+	private final Random random;
+	private long seed;
+	private int direction;
+	private int food;
+	/* The cell left by the tail in the last tick, or -1 if it did not move */
+	private int removedTail = -1;
+	private long tick;
+	private boolean over;
+	/*
+	 * The distance field of the food on a level without fields of its own,
+	 * which only depends on the cell of the food, and its search queue
+	 */
+	private int[] foodDistances;
+	private int[] distanceQueue;
+	private int distanceFood = -1;
+
+	public Simulation(int columns, int rows, long seed) {
+		this(new Board(columns, rows), null, seed);
+	}
+
+	public Simulation(Level level, long seed) {
+		this(level.newBoard(), level, seed);
+	}
+
+	private Simulation(Board board, Level level, long seed) {
+		this.board = board;
+		this.level = level;
+		body = new SnakeBody(board.getCellCount());
+		random = new Random(seed);
+		this.seed = seed;
+		start();
+	}
+
+	/**
+	 * Start a new game with the seed on the same board, reusing the memory
+	 * of the simulation. The game plays out as in a new simulation.
+	 *
+	 * @param seed
+	 */
+	public void reset(long seed) {
+		this.seed = seed;
+		random.setSeed(seed);
+		/* Only the body occupies the board */
+		while (!body.isEmpty())
+			board.release(body.removeTail());
+		start();
+	}
+
+	/* Lay out a new game on an empty board */
+	private void start() {
+		if (level == null) {
+			int columns = board.getColumns();
+			int rows = board.getRows();
+			body.addHead(board.cellAt(columns / 2 + 1, rows / 2));
+			body.addHead(board.cellAt(columns / 2, rows / 2));
+			direction = LEFT;
+		} else {
+			direction = level.getStartDirection();
+			int head = level.getStart();
+			body.addHead(board.cellAt(board.columnOf(head)
+					- DX[direction], board.rowOf(head) - DY[direction]));
+			body.addHead(head);
+		}
+		board.occupy(body.getTail());
+		board.occupy(body.getHead());
+		removedTail = -1;
+		tick = 0;
+		over = false;
+		placeFood();
+	}
+
+	public static int reverse(int direction) {
+		return (direction + 2) & 3;
+	}
+
+	public static int dx(int direction) {
+		return DX[direction];
+	}
+
+	public static int dy(int direction) {
+		return DY[direction];
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * The level of the board, or null if the board is empty.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	public SnakeBody getBody() {
+		return body;
+	}
+
+	public int getDirection() {
+		return direction;
+	}
+
+	/**
+	 * The cell of the food, or -1 if the snake fills the whole board.
+	 */
+	public int getFood() {
+		return food;
+	}
+
+	public int getScore() {
+		return body.size() - 2;
+	}
+
+	/**
+	 * The cell which the tail left in the last tick, or -1 if the snake grew
+	 * or did not move.
+	 */
+	public int getRemovedTail() {
+		return removedTail;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public boolean isOver() {
+		return over;
+	}
+
+	/**
+	 * Get the cell next to the head in the given direction, or past the other
+	 * end of a portal of the level.
+	 *
+	 * @param direction
+	 * @return the cell index, or -1 if it is outside of the board
+	 */
+	public int nextCell(int direction) {
+		int head = body.getHead();
+		if (level != null)
+			return level.step(head, direction);
+		int column = board.columnOf(head) + DX[direction];
+		int row = board.rowOf(head) + DY[direction];
+		if (!board.isInside(column, row))
+			return -1;
+		return board.cellAt(column, row);
+	}
+
+	/**
+	 * Get the direction from the head to a cell next to it, or past a portal.
+	 *
+	 * @param cell
+	 * @return the direction
+	 */
+	public int directionTo(int cell) {
+		if (level != null)
+			for (int direction = 0; direction < 4; direction++)
+				if (nextCell(direction) == cell)
+					return direction;
+		int head = body.getHead();
+		int dx = board.columnOf(cell) - board.columnOf(head);
+		int dy = board.rowOf(cell) - board.rowOf(head);
+		return dy < 0 ? UP : dx > 0 ? RIGHT : dy > 0 ? DOWN : LEFT;
+	}
+
+	public boolean isDead(int cell) {
+		return cell < 0 || board.isOccupied(cell);
+	}
+
+	/**
+	 * The number of moves from the cell to the food through the walls and
+	 * portals of the level, ignoring the snake, which is looked up in the
+	 * distance fields of the level instead of searched. On a level too large
+	 * for its fields, the field of the food is computed the first time it is
+	 * asked for, which visits every cell, and kept by this simulation.
+	 *
+	 * @param cell
+	 * @return the number of moves, or -1 if there is no food or it cannot be
+	 *         reached
+	 */
+	public int getFoodDistance(int cell) {
+		if (food < 0)
+			return -1;
+		if (level != null) {
+			if (level.hasDistanceFields())
+				return level.getDistance(food, cell);
+			if (distanceFood != food) {
+				if (foodDistances == null) {
+					foodDistances = new int[board.getCellCount()];
+					distanceQueue = new int[board.getCellCount()];
+				}
+				level.computeDistances(food, foodDistances, distanceQueue);
+				distanceFood = food;
+			}
+			return foodDistances[cell];
+		}
+		return Math.abs(board.columnOf(cell) - board.columnOf(food))
+				+ Math.abs(board.rowOf(cell) - board.rowOf(food));
+	}
+
+	/**
+	 * Whether getFoodDistance() is a lookup, and not a search of the whole
+	 * level first.
+	 */
+	public boolean hasFoodDistances() {
+		return level == null || level.hasDistanceFields()
+				|| distanceFood == food;
+	}
+
+	/**
+	 * Advance the game by one tick. The snake turns to the new direction
+	 * unless it is NONE or the reverse of the current direction, then moves
+	 * one square forward, growing if it eats the food.
+	 *
+	 * @param newDirection
+	 * @return MOVED, ATE, DIED or WON
+	 */
+	public int step(int newDirection) {
+		if (over)
+			return DIED;
+		tick++;
+		removedTail = -1;
+		if (newDirection != NONE && newDirection != reverse(direction))
+			direction = newDirection;
+
+		int next = nextCell(direction);
+		if (isDead(next)) {
+			over = true;
+			return DIED;
+		}
+
+		board.occupy(next);
+		body.addHead(next);
+		if (next == food) {
+			placeFood();
+			if (food < 0) {
+				over = true;
+				return WON;
+			}
+			return ATE;
+		}
+		removedTail = body.removeTail();
+		board.release(removedTail);
+		return MOVED;
+	}
+
+	/**
+	 * Replace the whole state of the simulation with the one of another
+	 * simulation, as sent by SnakeServer, to mirror it.
+	 *
+	 * @param tick
+	 * @param direction
+	 * @param food
+	 * @param cells
+	 *            the cells of the body from the tail to the head
+	 * @param length
+	 *            the number of cells of the body
+	 * @param over
+	 */
+	public void applyKeyframe(long tick, int direction, int food,
+			int[] cells, int length, boolean over) {
+		board.clear();
+		body.clear();
+		for (int i = 0; i < length; i++) {
+			board.occupy(cells[i]);
+			body.addHead(cells[i]);
+		}
+		this.tick = tick;
+		this.direction = direction;
+		this.food = food;
+		this.over = over;
+		removedTail = -1;
+	}
+
+	/**
+	 * Play one tick of a mirrored simulation from its changes, as sent by
+	 * SnakeServer, instead of from a direction.
+	 *
+	 * @param head
+	 *            the new head, or -1 if the snake did not move
+	 * @param removedTail
+	 *            the cell left by the tail, or -1 if the snake grew
+	 * @param food
+	 *            the cell of the food after the tick
+	 * @param over
+	 *            whether the game ended in the tick
+	 */
+	public void applyDelta(int head, int removedTail, int food, boolean over) {
+		tick++;
+		this.removedTail = removedTail;
+		if (removedTail >= 0) {
+			body.removeTail();
+			board.release(removedTail);
+		}
+		if (head >= 0) {
+			direction = directionTo(head);
+			board.occupy(head);
+			body.addHead(head);
+		}
+		this.food = food;
+		this.over = over;
+	}
+
+	/**
+	 * Run the simulation with directions from the controller until the game
+	 * is over or the given number of ticks has passed.
+	 *
+	 * @param controller
+	 * @param maxTicks
+	 * @return the number of ticks run
+	 */
+	public long run(Controller controller, long maxTicks) {
+		long start = tick;
+		while (!over && tick - start < maxTicks)
+			step(controller.nextDirection(this));
+		return tick - start;
+	}
+
+	/**
+	 * Choose a random location from the free squares of the board.
+	 */
+	private void placeFood() {
+		int size = board.getFreeCount();
+		if (size == 0)
+			food = -1;
+		else
+			food = board.getFreeCell(random.nextInt(size));
+	}
+}
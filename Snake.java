@@ -1,79 +1,185 @@
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Snake {
 
 	private final Game GAME;
 	private final Food food;
-	/*
-	 * All the squares excepts for the ones that are occupied by the snake's
-	 * body. This is used to get a valid location for the food.
-	 */
-	private ArrayList<Point> availableLocs = new ArrayList<Point>();
-	private ConcurrentLinkedQueue<Point> body;
-	private Point head;
-	public final int[] UP = { 0, -10 };
-	public final int[] DOWN = { 0, 10 };
-	public final int[] LEFT = { -10, 0 };
-	public final int[] RIGHT = { 10, 0 };
+	/* The rules of the game, which the snake drives and draws */
+	private final Simulation simulation;
+	private final Board board;
+	private final SnakeBody body;
+	/* The velocities in cells per tick */
+	public final int[] UP = { 0, -1 };
+	public final int[] DOWN = { 0, 1 };
+	public final int[] LEFT = { -1, 0 };
+	public final int[] RIGHT = { 1, 0 };
 	public final int[] STOP = { 0, 0 };
 	private int[] velocity;
-	/* A queue which stores the movement direction vectors from the key inputs */
-	private ConcurrentLinkedQueue<int[]> velocityBuffer;
+	/* A queue which stores the movement directions from the key inputs */
+	private final InputQueue inputs;
+	/* Nanoseconds from the key input to the tick which applied it */
+	private volatile long inputLatency;
+	/* Drives the snake instead of the key inputs when it is set */
+	private volatile Controller controller;
+	/* The server which plays the game instead of the simulation, or null */
+	private volatile SnakeClient remote;
+	private GameRecorder recorder;
 	private Color snakeColor;
+	/* The food cell on the board as it was last drawn */
+	private int drawnFood = -1;
+	public static final Color BOARD_COLOR = Color.darkGray;
+	public static final Color SNAKE_COLOR = Color.yellow;
+	public static final Color JOINT_COLOR = Color.orange;
+	public static final Color FOOD_COLOR = Color.green;
+	public static final Color WALL_COLOR = Color.gray;
+	public static final Color PORTAL_COLOR = Color.cyan;
+	/* The size of a cell in pixels, and of the parts drawn in it */
+	private final int CELL;
+	private final TileAtlas atlas;
 
 	/**
 	 * This class simulates a snake which can move up, right, down, and left,
 	 * one square a time; grows length by one when one unit of food is eaten;
 	 * dies when the head touches its body or the walls. The snake can turn left
-	 * or right, 90 degrees each turn.
+	 * or right, 90 degrees each turn. The rules themselves are played by a
+	 * Simulation; the snake feeds it the key inputs, tells the game when it
+	 * dies and draws it.
 	 * 
 	 * @param game
 	 */
 	public Snake(Game game) {
+		this(game, game.getLevel() != null ? new Simulation(game.getLevel(),
+				System.nanoTime()) : new Simulation(game.getColumns(),
+				game.getRows(), System.nanoTime()));
+	}
+
+	Snake(Game game, Simulation simulation) {
+		this(game, simulation, game.getCellSize());
+	}
+
+	Snake(Game game, Simulation simulation, int cellSize) {
 		this.GAME = game;
-		body = new ConcurrentLinkedQueue<Point>();
-		body.add(new Point((int) (GAME.getWidth() / 20) * 10 + 10, (int) (GAME
-				.getHeight() / 20) * 10));
-		head = new Point((int) (GAME.getWidth() / 20) * 10,
-				(int) (GAME.getHeight() / 20) * 10);
-		body.add(head);
+		this.simulation = simulation;
+		CELL = cellSize;
+		atlas = new TileAtlas(cellSize);
+		board = simulation.getBoard();
+		body = simulation.getBody();
 		velocity = LEFT;
-		velocityBuffer = new ConcurrentLinkedQueue<int[]>();
-		for (int i = 0; i < GAME.getWidth() * GAME.getHeight() / 10; i += 10)
-			availableLocs.add(new Point(i % GAME.getWidth(), i
-					/ GAME.getWidth() * 10));
-		availableLocs.removeAll(body);
+		inputs = new InputQueue(16);
 		food = new Food();
-		snakeColor = Color.yellow;
+		snakeColor = SNAKE_COLOR;
+	}
+
+	public Simulation getSimulation() {
+		return simulation;
 	}
 
 	public int getScore() {
-		return body.size() - 2;
+		return simulation.getScore();
 	}
 
 	public int[] getVelocity() {
 		return velocity;
 	}
 
+	public Controller getController() {
+		return controller;
+	}
+
+	/**
+	 * Let the controller drive the snake instead of the key inputs, or give
+	 * the control back to the keys if it is null.
+	 * 
+	 * @param controller
+	 */
+	public void setController(Controller controller) {
+		this.controller = controller;
+	}
+
+	public SnakeClient getRemote() {
+		return remote;
+	}
+
+	/**
+	 * Show the game played by a server instead of playing it here. The
+	 * simulation of the snake must be the mirror of the client. The key
+	 * inputs are sent to the server.
+	 * 
+	 * @param remote
+	 */
+	public void setRemote(SnakeClient remote) {
+		this.remote = remote;
+	}
+
+	/**
+	 * Record the moves of the snake from now on into the file, so that the
+	 * game can be replayed with GameReplayer.
+	 * 
+	 * @param path
+	 * @throws IOException
+	 */
+	public synchronized void startRecording(Path path) throws IOException {
+		finishRecording();
+		recorder = new GameRecorder(path, board.getColumns(), board.getRows(),
+				simulation.getSeed());
+	}
+
+	public synchronized void finishRecording() {
+		if (recorder == null)
+			return;
+		try {
+			recorder.finish(simulation.getTick());
+		} catch (IOException e) {
+			System.err.println("Cannot finish recording: " + e);
+		}
+		recorder = null;
+	}
+
+	private synchronized void record(int direction) {
+		if (recorder == null)
+			return;
+		try {
+			recorder.record(simulation.getTick(), direction);
+		} catch (IOException e) {
+			System.err.println("Cannot record: " + e);
+			recorder = null;
+		}
+	}
+
+	/**
+	 * The delay in nanoseconds between the last applied key input and the
+	 * tick which applied it.
+	 */
+	public long getInputLatency() {
+		return inputLatency;
+	}
+
 	/**
 	 * Instead of just changing the velocity parameter of the snake, the new
 	 * velocity is added to the buffer queue, which pops out new velocities once
 	 * at a time, so that the control experience of the game would be better.
+	 * This is called by the thread which receives the key inputs.
 	 * 
 	 * @param newVelocity
 	 */
 	public void setVelocity(int[] newVelocity) {
-		velocityBuffer.add(newVelocity);
+		int direction = directionOf(newVelocity);
+		if (direction != Simulation.NONE)
+			inputs.offer(direction, System.nanoTime());
 	}
 
+	/**
+	 * Drop the buffered velocities. This is called by the game loop thread.
+	 */
 	public void flushVelocityBuffer() {
-		velocityBuffer.clear();
+		inputs.clear();
 	}
 
 	/**
@@ -82,83 +188,231 @@ public class Snake {
 	 * and removing the last unit.
 	 */
 	public void move() {
-		/* Only care about the last 3 velocities input to the snake */
-		while (velocityBuffer.size() > 3)
-			velocityBuffer.poll();
-		/*
-		 * Omit any illegal velocity value in the buffer until none exists or
-		 * buffer is empty. New velocity that is the reverse of the current
-		 * velocity is illegal.
-		 */
-		while (!velocityBuffer.isEmpty()
-				&& ((velocityBuffer.peek()[0] + velocity[0] == 0 && velocityBuffer
-						.peek()[1] + velocity[1] == 0) || velocityBuffer.peek()
-						.equals(velocity)))
-			velocityBuffer.poll();
-		if (!velocityBuffer.isEmpty())
-			velocity = velocityBuffer.poll();
-
-		Point next = new Point((int) head.getX() + velocity[0],
-				(int) head.getY() + velocity[1]);
+		SnakeClient client = remote;
+		if (client != null) {
+			moveRemote(client);
+			return;
+		}
+		Controller current = controller;
+		int direction;
+		if (current != null) {
+			direction = current.nextDirection(simulation);
+			inputs.clear();
+		} else {
+			/*
+			 * Only care about the last 3 velocities input to the snake, and
+			 * omit the ones that are the same as or the reverse of the current
+			 * velocity.
+			 */
+			direction = inputs.poll(directionOf(velocity));
+			if (direction != Simulation.NONE) {
+				inputLatency = System.nanoTime() - inputs.getPolledStamp();
+				if (Metrics.ENABLED)
+					Metrics.INPUT_LATENCY.record(inputLatency);
+			}
+		}
 
 		/*
 		 * Check if the snake is going to be dead: the snake will stop right in
 		 * front of the wall or itself and reminds the player that game is over.
 		 */
-		if (isDead(next)) {
-			System.out.println("Ooops!");
-			GAME.getGameCore().updateBestScore();
+		int result = simulation.step(direction);
+		velocity = velocityOf(simulation.getDirection());
+		if (direction != Simulation.NONE)
+			record(direction);
+		if (result == Simulation.ATE) {
+			GAME.getEvents().publish(
+					GameEvent.ofSnake(GameEvent.Type.FOOD_EATEN, getScore(),
+							current == null));
+		} else if (result == Simulation.DIED || result == Simulation.WON) {
+			gameOver(result == Simulation.WON, current == null);
+		} else if (current instanceof GameReplayer
+				&& ((GameReplayer) current).isFinished(simulation)) {
 			GAME.stop();
-			return;
 		}
+	}
 
-		if (next.equals(food.getLocation())) {
-			availableLocs.remove(next);
-			food.updateLocation();
-			head = next;
-			body.add(next);
+	/**
+	 * Send the key inputs to the server and follow the frames it sent. When
+	 * the server tells that its game is over, the game here ends the same
+	 * way as a game played here, and the connection is closed.
+	 */
+	private void moveRemote(SnakeClient client) {
+		int direction = inputs.poll(directionOf(velocity));
+		if (direction != Simulation.NONE)
+			client.sendDirection(direction);
+		long tick = simulation.getTick();
+		if (client.update() == 0)
 			return;
+		velocity = velocityOf(simulation.getDirection());
+		/* The changes of more than one tick cannot be drawn incrementally */
+		if (simulation.getTick() != tick + 1 && GAME != null)
+			GAME.getGameCore().redrawAll();
+		if (simulation.isOver()) {
+			client.close();
+			gameOver(simulation.getFood() < 0, true);
 		}
+	}
 
-		head = next;
-		body.add(next);
-		availableLocs.remove(next);
-		availableLocs.add(body.poll());
+	/*
+	 * Tell that the snake died or cleared the board, and stop the game.
+	 */
+	private void gameOver(boolean won, boolean byPlayer) {
+		System.out.println(won ? "Board cleared!" : "Ooops!");
+		finishRecording();
+		Board board = simulation.getBoard();
+		GAME.getEvents().publish(
+				GameEvent.ofDeath(getScore(), byPlayer, GAME.getDifficulty(),
+						board.getColumns(), board.getRows()));
+		GAME.stop();
 	}
 
 	public boolean isDead(Point next) {
-		if (body.contains(next))
-			return true;
 		int x = (int) next.getX();
 		int y = (int) next.getY();
-		if (x < 0 || x > GAME.getWidth() - 10 || y < 0
-				|| y > GAME.getHeight() - 10)
+		if (x < 0 || y < 0 || !board.isInside(x / CELL, y / CELL))
 			return true;
-		return false;
+		return board.isOccupied(board.cellAt(x / CELL, y / CELL));
+	}
+
+	private int[] velocityOf(int direction) {
+		switch (direction) {
+		case Simulation.UP:
+			return UP;
+		case Simulation.RIGHT:
+			return RIGHT;
+		case Simulation.DOWN:
+			return DOWN;
+		case Simulation.LEFT:
+			return LEFT;
+		default:
+			return STOP;
+		}
+	}
+
+	/**
+	 * Convert a velocity vector to the direction code of the simulation.
+	 */
+	private int directionOf(int[] velocity) {
+		if (velocity[1] < 0)
+			return Simulation.UP;
+		if (velocity[0] > 0)
+			return Simulation.RIGHT;
+		if (velocity[1] > 0)
+			return Simulation.DOWN;
+		if (velocity[0] < 0)
+			return Simulation.LEFT;
+		return Simulation.NONE;
 	}
 
 	public void drawSnake(Graphics g) {
-		food.drawFood(g);
-		Iterator<Point> itr = body.iterator();
-		Point last = null;
-		/* Draw a snake with connection between each body unit and shadow effect */
-		while (itr.hasNext()) {
-			Point next = itr.next();
-			g.setColor(snakeColor);
-			g.fillRect((int) next.getX(), (int) next.getY(), 9, 9);
-			if (last != null) {
-				g.setColor(Color.orange);
-				if (last.getX() != next.getX())
-					g.fillRect((int) Math.max(last.getX(), next.getX()) - 1,
-							(int) next.getY(), 2, 9);
-				else
-					g.fillRect((int) next.getX(),
-							(int) Math.max(last.getY(), next.getY()) - 1, 9, 2);
+		drawBoard(g);
+		drawScore(g);
+	}
+
+	/**
+	 * Draw the walls and portals of the level, the food and the snake onto a
+	 * board which is already filled with the background color.
+	 */
+	public void drawBoard(Graphics g) {
+		Level level = simulation.getLevel();
+		if (level != null) {
+			g.setColor(WALL_COLOR);
+			for (int wall = level.nextWall(0); wall >= 0; wall = level
+					.nextWall(wall + 1))
+				g.fillRect(board.columnOf(wall) * CELL, board.rowOf(wall)
+						* CELL, CELL, CELL);
+			g.setColor(PORTAL_COLOR);
+			for (int i = 0; i < level.getPortalCount() * 2; i++) {
+				int cell = level.getPortal(i / 2, i % 2);
+				g.fillRect(board.columnOf(cell) * CELL, board.rowOf(cell)
+						* CELL, CELL, CELL);
 			}
-			last = next;
 		}
+		food.drawFood(g);
+		drawnFood = food.getCell();
+		/* Draw a snake with connection between each body unit and shadow effect */
+		for (int i = 0; i < body.size(); i++)
+			drawTile(g, i);
+	}
+
+	public void drawScore(Graphics g) {
 		g.setColor(Color.white);
-		g.drawString("Score: " + getScore(), 10, 20);
+		atlas.drawScore(g, getScore(), 10, 20);
+	}
+
+	/**
+	 * The width of the score as drawScore() draws it in the font of the
+	 * metrics.
+	 */
+	public int getScoreWidth(FontMetrics metrics) {
+		return TileAtlas.getScoreWidth(metrics, getScore());
+	}
+
+	/**
+	 * Draw only the squares which changed in the last move onto a board which
+	 * was fully drawn before, and ask the component to repaint them. The
+	 * squares are the removed tail, the new tail, the old and the new head,
+	 * and the old and the new food.
+	 * 
+	 * @param g
+	 * @param component
+	 */
+	public void drawChanges(Graphics g, Component component) {
+		int size = body.size();
+		int removedTail = simulation.getRemovedTail();
+		if (removedTail >= 0)
+			drawEmptyCell(g, removedTail, component);
+		if (drawnFood >= 0 && drawnFood != food.getCell()
+				&& !board.isOccupied(drawnFood))
+			drawEmptyCell(g, drawnFood, component);
+		if (food.getCell() >= 0) {
+			food.drawFood(g);
+			repaintCell(component, food.getCell());
+		}
+		drawnFood = food.getCell();
+		drawSegment(g, 0, component);
+		if (size > 2)
+			drawSegment(g, size - 2, component);
+		if (size > 1)
+			drawSegment(g, size - 1, component);
+	}
+
+	private void drawEmptyCell(Graphics g, int cell, Component component) {
+		g.setColor(BOARD_COLOR);
+		g.fillRect(board.columnOf(cell) * CELL, board.rowOf(cell) * CELL, CELL,
+				CELL);
+		repaintCell(component, cell);
+	}
+
+	/**
+	 * Redraw the square of the i-th unit of the body exactly as drawBoard
+	 * draws it.
+	 */
+	private void drawSegment(Graphics g, int i, Component component) {
+		drawTile(g, i);
+		repaintCell(component, body.get(i));
+	}
+
+	/*
+	 * Draw the square of the i-th unit of the body from the tile of the sides
+	 * joined to the units before and after it
+	 */
+	private void drawTile(Graphics g, int i) {
+		int cell = body.get(i);
+		int sides = 0;
+		if (i > 0)
+			sides |= TileAtlas.sideBetween(board, cell, body.get(i - 1));
+		if (i < body.size() - 1)
+			sides |= TileAtlas.sideBetween(board, cell, body.get(i + 1));
+		g.drawImage(atlas.getSegment(sides, BOARD_COLOR, snakeColor,
+				JOINT_COLOR), board.columnOf(cell) * CELL, board.rowOf(cell)
+				* CELL, null);
+	}
+
+	private void repaintCell(Component component, int cell) {
+		component.repaint(board.columnOf(cell) * CELL, board.rowOf(cell) * CELL,
+				CELL, CELL);
 	}
 
 	/**
@@ -170,24 +424,25 @@ public class Snake {
 	 */
 	class Food {
 
-		private Point location;
 		private Color foodColor;
+		private final Random random = new Random(simulation.getSeed());
 
 		public Food() {
-			updateLocation();
-			foodColor = Color.green;
+			foodColor = FOOD_COLOR;
 		}
 
 		/**
-		 * Choose a random location from the available locations.
+		 * The cell of the food, which is placed by the simulation. The cell is
+		 * -1 if the snake fills the whole board.
 		 */
-		public void updateLocation() {
-			int size = availableLocs.size();
-			location = availableLocs.get((int) (Math.random() * size));
+		public int getCell() {
+			return simulation.getFood();
 		}
 
 		public Point getLocation() {
-			return location;
+			int cell = getCell();
+			return new Point(board.columnOf(cell) * CELL, board.rowOf(cell)
+					* CELL);
 		}
 
 		public Color getColor() {
@@ -195,7 +450,6 @@ public class Snake {
 		}
 
 		public void changeColor() {
-			Random random = new Random();
 			int red = random.nextInt(256);
 			int green = random.nextInt(256);
 			int blue = random.nextInt(256);
@@ -203,11 +457,11 @@ public class Snake {
 		}
 
 		public void drawFood(Graphics g) {
-			g.setColor(foodColor.darker());
-			g.fillRect((int) location.getX(), (int) location.getY(), 10, 10);
-			g.setColor(foodColor);
-			g.fillRect((int) location.getX(), (int) location.getY(), 8, 8);
-
+			int cell = getCell();
+			if (cell < 0)
+				return;
+			g.drawImage(atlas.getFood(foodColor), board.columnOf(cell) * CELL,
+					board.rowOf(cell) * CELL, null);
 		}
 	}
 }
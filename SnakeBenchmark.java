@@ -0,0 +1,486 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the cost of the game loop on boards from 25x25 up to 10000x10000:
+ * ticks of the simulation, collision checks, food placement and drawing into
+ * an offscreen image. Each result reports the time per operation, the
+ * operations per second and the bytes allocated per operation, and the
+ * results are written as JSON to the file given as the first argument, or to
+ * the standard output.
+ *
+ * The game loop allocates nothing once it runs, so a benchmark which
+ * allocates a byte or more per operation fails the run, which exits with
+ * status 1 after writing the results.
+ *
+ * The same workloads run under JMH with "mvn -P jmh package", through
+ * workload(), which the benchmarks in src/jmh/java call.
+ */
+public class SnakeBenchmark {
+
+	private static final int[] BOARD_SIZES = { 25, 64, 256, 1024, 4096, 10000 };
+	private static final int[] RENDER_BOARD_SIZES = { 64, 256 };
+	private static final int[] RENDER_LENGTHS = { 2, 100, 1000 };
+	private static final int[] AUTOPILOT_BOARD_SIZES = { 25, 64, 256, 1024 };
+	private static final int[] FULL_GAME_BOARD_SIZES = { 16, 32 };
+	private static final int ENV_BOARD_SIZE = 16;
+	private static final int ENV_BATCH = 256;
+	private static final int ARENA_BOARD_SIZE = 256;
+	private static final int[] ARENA_SNAKES = { 16, 128, 1024 };
+	private static final long WARMUP_NANOS = 500000000L;
+	private static final long MEASURE_NANOS = 1000000000L;
+	private static final int BATCH = 1024;
+	/* Less is the noise of the measurement, not an allocation per operation */
+	private static final double MAX_BYTES_PER_OP = 1;
+	/* The pixels a frame may be wide, and the pixels of a cell at most */
+	private static final int MAX_FRAME_SIZE = 4096;
+	private static final int MAX_CELL_SIZE = 10;
+	/* The bytes the observations of a batch of environments may take */
+	private static final int MAX_OBSERVATION_BYTES = 1 << 26;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/* Keeps the results of the measured code alive */
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		ArrayList<String> results = new ArrayList<String>();
+		ArrayList<String> failures = new ArrayList<String>();
+		for (int size : BOARD_SIZES) {
+			results.add(measure("tick", size, 2, BATCH, failures));
+			results.add(measure("isDead", size, 2, BATCH, failures));
+			results.add(measure("placeFood", size, 0, BATCH, failures));
+		}
+		for (int size : RENDER_BOARD_SIZES)
+			for (int length : RENDER_LENGTHS)
+				results.add(measure("render", size, length, 16, failures));
+		for (int size : RENDER_BOARD_SIZES)
+			for (int length : RENDER_LENGTHS)
+				results.add(measure("frameRender", size, length, 16, failures));
+		for (int size : RENDER_BOARD_SIZES)
+			results.add(measure("frameChanges", size, 0, BATCH, failures));
+		for (int size : AUTOPILOT_BOARD_SIZES)
+			results.add(measure("autopilot", size, 0, BATCH, failures));
+		for (int size : FULL_GAME_BOARD_SIZES)
+			results.add(measure("fullGame", size, size * size, BATCH,
+					failures));
+		results.add(measure("vectorEnv", ENV_BOARD_SIZE, ENV_BATCH, 1,
+				failures));
+		for (int snakes : ARENA_SNAKES)
+			results.add(measure("arena", ARENA_BOARD_SIZE, snakes, 64,
+					failures));
+
+		StringBuilder json = new StringBuilder("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			json.append("  ").append(results.get(i));
+			json.append(i < results.size() - 1 ? ",\n" : "\n");
+		}
+		json.append("]\n");
+		if (args.length > 0)
+			Files.write(Paths.get(args[0]),
+					json.toString().getBytes(StandardCharsets.UTF_8));
+		else
+			System.out.print(json);
+		for (String failure : failures)
+			System.err.println("Allocates: " + failure);
+		if (!failures.isEmpty())
+			System.exit(1);
+	}
+
+	/**
+	 * Create the state of a benchmark. The workloads fit themselves to large
+	 * boards: the frames are drawn with smaller cells, down to a pixel, so
+	 * that they are at most MAX_FRAME_SIZE pixels wide, the boards played by
+	 * the Hamiltonian solver drop a row if they have an odd number of them,
+	 * and a batch of environments has fewer of them when their observations
+	 * would take more than MAX_OBSERVATION_BYTES.
+	 *
+	 * @param benchmark
+	 *            the name of the benchmark, as in the results
+	 * @param size
+	 *            the columns and rows of the board
+	 * @param length
+	 *            the length of the snake for the render benchmarks, the
+	 *            number of snakes for "arena" and of environments for
+	 *            "vectorEnv", or unused
+	 * @return the operation of the benchmark, which returns a value to keep
+	 *         the measured code alive
+	 */
+	public static LongSupplier workload(String benchmark, int size,
+			int length) {
+		switch (benchmark) {
+		case "tick":
+			return tick(size);
+		case "isDead":
+			return isDead(size);
+		case "placeFood":
+			return placeFood(size);
+		case "render":
+			return render(size, length);
+		case "frameRender":
+			return frameRender(size, length);
+		case "frameChanges":
+			return frameChanges(size);
+		case "autopilot":
+			return autopilot(size);
+		case "fullGame":
+			return fullGame(size);
+		case "vectorEnv":
+			return vectorEnv(size, length);
+		case "arena":
+			return arena(size, length);
+		default:
+			throw new IllegalArgumentException("Unknown benchmark: "
+					+ benchmark);
+		}
+	}
+
+	/**
+	 * Run the workload in batches of operations, and note it in the failures
+	 * if it allocates.
+	 */
+	private static String measure(String benchmark, int size, int length,
+			int batch, ArrayList<String> failures) {
+		Workload workload = (Workload) workload(benchmark, size, length);
+		Measurement m = new Measurement();
+		while (m.next()) {
+			for (int i = 0; i < batch; i++)
+				sink += workload.getAsLong();
+			m.add(batch * workload.operations);
+		}
+		String json = m.toJson(benchmark, size, workload.getLength());
+		if (m.getBytesPerOp() >= MAX_BYTES_PER_OP)
+			failures.add(json);
+		return json;
+	}
+
+	/**
+	 * One tick of the game loop: the controller chooses a direction and the
+	 * simulation moves the snake.
+	 */
+	private static Workload tick(final int size) {
+		final TurnController controller = new TurnController();
+		final Simulation simulation = new Simulation(size, size, 1);
+		return new Workload(2) {
+			public long getAsLong() {
+				if (simulation.isOver())
+					simulation.reset(simulation.getSeed() + 1);
+				return simulation.step(controller.nextDirection(simulation));
+			}
+		};
+	}
+
+	private static Workload isDead(int size) {
+		final Simulation simulation = new Simulation(size, size, 1);
+		return new Workload(2) {
+			private int direction;
+
+			public long getAsLong() {
+				direction = (direction + 1) & 3;
+				return simulation.isDead(simulation.nextCell(direction)) ? 1
+						: 0;
+			}
+		};
+	}
+
+	/**
+	 * Picking a random free cell and moving it between the occupied and the
+	 * free cells, which is what the simulation does when the food is eaten.
+	 */
+	private static Workload placeFood(int size) {
+		final Board board = new Board(size, size);
+		final Random random = new Random(1);
+		return new Workload(0) {
+			public long getAsLong() {
+				int cell = board.getFreeCell(random.nextInt(board
+						.getFreeCount()));
+				board.occupy(cell);
+				board.release(cell);
+				return cell;
+			}
+		};
+	}
+
+	/**
+	 * Drawing the whole frame as the game panel does, into an offscreen image.
+	 */
+	private static Workload render(final int size, int length) {
+		Simulation simulation = grow(size, length);
+		final int frameSize = size * cellSize(size);
+		final Snake snake = new Snake(null, simulation, cellSize(size));
+		BufferedImage image = new BufferedImage(frameSize, frameSize,
+				BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = image.createGraphics();
+		return new Workload(simulation.getBody().size()) {
+			public long getAsLong() {
+				g.setColor(Color.darkGray);
+				g.fillRect(0, 0, frameSize, frameSize);
+				snake.drawSnake(g);
+				return 0;
+			}
+		};
+	}
+
+	/**
+	 * Drawing the whole frame into an array of pixels with FrameRenderer.
+	 */
+	private static Workload frameRender(int size, int length) {
+		Simulation simulation = grow(size, length);
+		final FrameRenderer renderer = new FrameRenderer(simulation,
+				cellSize(size));
+		return new Workload(simulation.getBody().size()) {
+			public long getAsLong() {
+				return renderer.render()[0];
+			}
+		};
+	}
+
+	/**
+	 * One tick of a game and the frame after it drawn by FrameRenderer from
+	 * the frame before, as for a video of the game.
+	 */
+	private static Workload frameChanges(int size) {
+		final HamiltonianSolver solver = new HamiltonianSolver(size,
+				evenRows(size));
+		final Simulation simulation = new Simulation(size, evenRows(size), 1);
+		final FrameRenderer renderer = new FrameRenderer(simulation,
+				cellSize(size));
+		renderer.render();
+		return new Workload(0) {
+			public long getAsLong() {
+				if (simulation.isOver()) {
+					simulation.reset(simulation.getSeed() + 1);
+					renderer.render();
+				}
+				simulation.step(solver.nextDirection(simulation));
+				return renderer.renderChanges()[0];
+			}
+
+			int getLength() {
+				return simulation.getBody().size();
+			}
+		};
+	}
+
+	/**
+	 * One tick of a long game played by the autopilot: the search for the
+	 * food and the safety check, then the move. The length in the result is
+	 * the longest snake reached.
+	 */
+	private static Workload autopilot(int size) {
+		final Autopilot autopilot = new Autopilot();
+		final Simulation simulation = new Simulation(size, size, 1);
+		return new Workload(0) {
+			private int longest;
+
+			public long getAsLong() {
+				if (simulation.isOver()) {
+					longest = Math.max(longest, simulation.getBody().size());
+					simulation.reset(simulation.getSeed() + 1);
+				}
+				return simulation.step(autopilot.nextDirection(simulation));
+			}
+
+			int getLength() {
+				return Math.max(longest, simulation.getBody().size());
+			}
+		};
+	}
+
+	/**
+	 * One tick of games played to a full board by the Hamiltonian solver,
+	 * which is the longest the snake gets and the fewest free cells the food
+	 * is placed among.
+	 */
+	private static Workload fullGame(int size) {
+		final HamiltonianSolver solver = new HamiltonianSolver(size,
+				evenRows(size));
+		final Simulation simulation = new Simulation(size, evenRows(size), 1);
+		return new Workload(size * evenRows(size)) {
+			public long getAsLong() {
+				if (simulation.isOver())
+					simulation.reset(simulation.getSeed() + 1);
+				return simulation.step(solver.nextDirection(simulation));
+			}
+		};
+	}
+
+	/**
+	 * One step of a batch of environments with random actions, writing the
+	 * observations into an off-heap buffer. An operation is the step of one
+	 * environment, and the length in the result is the number of
+	 * environments stepped per call.
+	 */
+	private static Workload vectorEnv(int size, int length) {
+		long bytes = (long) SnakeEnv.CHANNELS * size * size;
+		final int count = (int) Math.max(1,
+				Math.min(length, MAX_OBSERVATION_BYTES / bytes));
+		final SnakeVectorEnv envs = new SnakeVectorEnv(count, size, size, 1);
+		envs.setObservations(ByteBuffer.allocateDirect(envs
+				.getObservationSize()));
+		envs.reset();
+		final int[] actions = new int[count];
+		final float[] rewards = new float[count];
+		final boolean[] dones = new boolean[count];
+		final boolean[] truncations = new boolean[count];
+		final Random random = new Random(1);
+		Workload workload = new Workload(count) {
+			public long getAsLong() {
+				for (int i = 0; i < count; i++)
+					actions[i] = random.nextInt(4);
+				envs.step(actions, rewards, dones, truncations);
+				return actions[0];
+			}
+		};
+		workload.operations = count;
+		return workload;
+	}
+
+	/**
+	 * One tick of an arena match with all the snakes turning away from what
+	 * is ahead of them, and the dead ones coming back. The length in the
+	 * result is the number of snakes, so the time per tick should grow
+	 * linearly with it.
+	 */
+	private static Workload arena(int size, final int snakes) {
+		final Arena arena = new Arena(size, size, snakes, snakes / 4 + 1, 1);
+		final int[] directions = new int[snakes];
+		return new Workload(snakes) {
+			public long getAsLong() {
+				for (int snake = 0; snake < snakes; snake++) {
+					arena.respawn(snake);
+					directions[snake] = turn(arena, snake);
+				}
+				return arena.step(directions);
+			}
+		};
+	}
+
+	/* A simulation whose snake the Hamiltonian solver grew to the length */
+	private static Simulation grow(int size, int length) {
+		Simulation simulation = new Simulation(size, evenRows(size), 1);
+		Controller controller = new HamiltonianSolver(size, evenRows(size));
+		while (simulation.getBody().size() < length)
+			simulation.step(controller.nextDirection(simulation));
+		return simulation;
+	}
+
+	/* The pixels of a cell, so that a frame of the board fits */
+	private static int cellSize(int size) {
+		return Math.max(1, Math.min(MAX_CELL_SIZE, MAX_FRAME_SIZE / size));
+	}
+
+	/* The rows of a board with a Hamiltonian cycle, one fewer if odd */
+	private static int evenRows(int size) {
+		return size & ~1;
+	}
+
+	private static int turn(Arena arena, int snake) {
+		int direction = arena.getDirection(snake);
+		for (int turn : TurnController.TURNS) {
+			int next = (direction + turn) & 3;
+			if (!arena.isDead(arena.nextCell(snake, next)))
+				return next;
+		}
+		return Simulation.NONE;
+	}
+
+	/**
+	 * The state of a benchmark and its operation.
+	 */
+	private static abstract class Workload implements LongSupplier {
+
+		private final int length;
+		/* The operations a call counts as */
+		int operations = 1;
+
+		Workload(int length) {
+			this.length = length;
+		}
+
+		/* The length in the result */
+		int getLength() {
+			return length;
+		}
+	}
+
+	/**
+	 * Runs the measured code for a warmup period followed by a measurement
+	 * period, and keeps track of the time and the allocated bytes.
+	 */
+	private static class Measurement {
+
+		private final long thread = Thread.currentThread().getId();
+		private final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+		private boolean measuring;
+		private long start, end, startBytes, endBytes, operations;
+
+		boolean next() {
+			long now = System.nanoTime();
+			if (!measuring) {
+				if (now < warmupEnd)
+					return true;
+				measuring = true;
+				startBytes = THREADS.getThreadAllocatedBytes(thread);
+				start = System.nanoTime();
+				return true;
+			}
+			if (now - start < MEASURE_NANOS)
+				return true;
+			end = now;
+			endBytes = THREADS.getThreadAllocatedBytes(thread);
+			return false;
+		}
+
+		void add(int n) {
+			if (measuring)
+				operations += n;
+		}
+
+		double getBytesPerOp() {
+			return (double) (endBytes - startBytes) / operations;
+		}
+
+		String toJson(String name, int size, int length) {
+			double nanosPerOp = (double) (end - start) / operations;
+			return String.format(Locale.ROOT,
+					"{\"benchmark\": \"%s\", \"columns\": %d, \"rows\": %d, "
+							+ "\"length\": %d, \"nsPerOp\": %.3f, "
+							+ "\"opsPerSecond\": %.1f, \"bytesPerOp\": %.3f}",
+					name, size, size, length, nanosPerOp, 1e9 / nanosPerOp,
+					getBytesPerOp());
+		}
+	}
+
+	/**
+	 * Keeps the snake alive by turning whenever the square ahead is taken.
+	 */
+	private static class TurnController implements Controller {
+
+		private static final int[] TURNS = { 0, 1, 3 };
+
+		public int nextDirection(Simulation simulation) {
+			int direction = simulation.getDirection();
+			for (int turn : TURNS) {
+				int next = (direction + turn) & 3;
+				if (!simulation.isDead(simulation.nextCell(next)))
+					return next;
+			}
+			return Simulation.NONE;
+		}
+	}
+
+}
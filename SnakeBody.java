@@ -0,0 +1,99 @@
+/**
+ * The body of a snake stored as a ring buffer of cell indices, from the tail
+ * to the head. The buffer starts small and doubles when the snake outgrows
+ * it, up to the capacity, so a short snake on a huge board stays cheap and
+ * moving the snake (adding a head and removing the tail) never allocates.
+ */
+public class SnakeBody {
+
+	private static final int INITIAL_LENGTH = 16;
+
+	private final int CAPACITY;
+	private int[] cells;
+	/* Index of the tail in the ring buffer */
+	private int tail;
+	private int size;
+
+	/**
+	 * @param capacity
+	 *            the largest number of units the body can hold, usually the
+	 *            number of cells of the board
+	 */
+	public SnakeBody(int capacity) {
+		CAPACITY = capacity;
+		cells = new int[Math.min(capacity, INITIAL_LENGTH)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getHead() {
+		return get(size - 1);
+	}
+
+	public int getTail() {
+		return cells[tail];
+	}
+
+	/**
+	 * Get the i-th unit of the body, counting from the tail (0) to the head
+	 * (size() - 1).
+	 *
+	 * @param i
+	 * @return the cell index
+	 */
+	public int get(int i) {
+		int index = tail + i;
+		if (index >= cells.length)
+			index -= cells.length;
+		return cells[index];
+	}
+
+	public void addHead(int cell) {
+		if (size == cells.length)
+			grow();
+		int index = tail + size;
+		if (index >= cells.length)
+			index -= cells.length;
+		cells[index] = cell;
+		size++;
+	}
+
+	/**
+	 * Remove the tail of the body.
+	 *
+	 * @return the cell index of the removed tail
+	 */
+	public int removeTail() {
+		if (size == 0)
+			throw new IllegalStateException("Snake body is empty");
+		int cell = cells[tail];
+		if (++tail == cells.length)
+			tail = 0;
+		size--;
+		return cell;
+	}
+
+	public void clear() {
+		tail = 0;
+		size = 0;
+	}
+
+	/* Double the ring buffer, moving the body to its start */
+	private void grow() {
+		if (size == CAPACITY)
+			throw new IllegalStateException("Snake body is full");
+		int[] grown = new int[(int) Math.min((long) cells.length * 2,
+				CAPACITY)];
+		int first = Math.min(size, cells.length - tail);
+		System.arraycopy(cells, tail, grown, 0, first);
+		System.arraycopy(cells, 0, grown, first, size - first);
+		cells = grown;
+		tail = 0;
+	}
+}
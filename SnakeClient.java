@@ -0,0 +1,171 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Watches or plays a game served by SnakeServer. The client keeps a mirror of
+ * the simulation of the server, which the game panel draws like any other
+ * simulation. The frames are received on a background thread and kept in a
+ * buffer until the game loop applies them to the mirror with update(), so
+ * the mirror only changes on the game loop thread.
+ */
+public class SnakeClient {
+
+	private final SocketChannel channel;
+	private final Simulation mirror;
+	private final Thread receiver;
+	/* The received bytes not yet applied, in write mode; guarded by itself */
+	private ByteBuffer inbox = ByteBuffer.allocate(1 << 14);
+	private final ByteBuffer output = ByteBuffer.allocate(1);
+	private int[] cells = new int[16];
+	private volatile boolean connected = true;
+
+	/**
+	 * Connect to the server and wait for the state of its game.
+	 *
+	 * @param address
+	 * @throws IOException
+	 */
+	public SnakeClient(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		ByteBuffer header = ByteBuffer.allocate(9);
+		while (header.hasRemaining())
+			if (channel.read(header) < 0)
+				throw new EOFException("The server closed the connection");
+		if (header.get(0) != SnakeServer.KEYFRAME)
+			throw new IOException("Not a snake server: " + address);
+		mirror = new Simulation(header.getInt(1), header.getInt(5), 0);
+		header.flip();
+		inbox.put(header);
+		receiver = new Thread("Snake Client") {
+			public void run() {
+				receive();
+			}
+		};
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * The mirrored simulation. It is only up to date after update().
+	 */
+	public Simulation getSimulation() {
+		return mirror;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Ask the server to turn the snake, if this client is the player.
+	 *
+	 * @param direction
+	 */
+	public void sendDirection(int direction) {
+		if (!connected)
+			return;
+		output.clear();
+		output.put((byte) direction).flip();
+		try {
+			channel.write(output);
+		} catch (IOException e) {
+			System.err.println("Cannot send the direction: " + e);
+			close();
+		}
+	}
+
+	/**
+	 * Apply all the frames received so far to the mirror.
+	 *
+	 * @return the number of frames applied
+	 */
+	public int update() {
+		int frames = 0;
+		synchronized (this) {
+			inbox.flip();
+			while (applyFrame())
+				frames++;
+			inbox.compact();
+		}
+		return frames;
+	}
+
+	public void close() {
+		connected = false;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Cannot close the connection: " + e);
+		}
+	}
+
+	private void receive() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 14);
+		try {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				synchronized (this) {
+					if (inbox.remaining() < buffer.remaining()) {
+						/* A long snake makes a large key frame */
+						ByteBuffer grown = ByteBuffer.allocate(Math.max(
+								inbox.capacity() * 2, inbox.position()
+										+ buffer.remaining()));
+						inbox.flip();
+						grown.put(inbox);
+						inbox = grown;
+					}
+					inbox.put(buffer);
+				}
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			if (connected)
+				System.err.println("Lost the connection: " + e);
+		}
+		connected = false;
+	}
+
+	/* Apply the frame at the start of the inbox, if it is complete */
+	private boolean applyFrame() {
+		int start = inbox.position();
+		int available = inbox.remaining();
+		if (available < 2)
+			return false;
+		if (inbox.get(start) == SnakeServer.DELTA) {
+			int flags = inbox.get(start + 1);
+			int size = 6 + ((flags & SnakeServer.TAIL) != 0 ? 4 : 0)
+					+ ((flags & SnakeServer.FOOD) != 0 ? 4 : 0);
+			if (available < size)
+				return false;
+			inbox.position(start + 2);
+			int head = inbox.getInt();
+			int tail = (flags & SnakeServer.TAIL) != 0 ? inbox.getInt() : -1;
+			int food = (flags & SnakeServer.FOOD) != 0 ? inbox.getInt()
+					: mirror.getFood();
+			mirror.applyDelta(head, tail, food,
+					(flags & SnakeServer.OVER) != 0);
+			return true;
+		}
+		if (available < 27)
+			return false;
+		int length = inbox.getInt(start + 23);
+		if (available < 27 + 4 * length)
+			return false;
+		inbox.position(start + 9);
+		long tick = inbox.getLong();
+		int direction = inbox.get();
+		int food = inbox.getInt();
+		boolean over = inbox.get() != 0;
+		inbox.getInt();
+		if (cells.length < length)
+			cells = new int[Math.max(length, cells.length * 2)];
+		for (int i = 0; i < length; i++)
+			cells[i] = inbox.getInt();
+		mirror.applyKeyframe(tick, direction, food, cells, length, over);
+		return true;
+	}
+}
@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * The game as an environment for reinforcement learning: reset(seed) starts
+ * an episode, step(action) plays one tick and returns the reward, and
+ * isDone() tells when the episode is over. The action is the direction to
+ * turn to, as in Simulation, or NONE to go on.
+ *
+ * The observation is written straight into a buffer given by the caller, a
+ * FloatBuffer or a ByteBuffer which may be off-heap, so nothing is copied.
+ * It has four planes of columns * rows cells, one after another: the body,
+ * the head, the food and the portals, each cell 1 where they are and 0
+ * elsewhere; the walls of a Level are in the body plane, as they kill the
+ * same way, and the ends of its portals are in the portal plane, which is
+ * all 0 without a level. Only the few cells which change in a tick are
+ * written, so a step costs the same on any board.
+ */
+public class SnakeEnv {
+
+	public static final int CHANNELS = 4;
+	public static final int BODY = 0;
+	public static final int HEAD = 1;
+	public static final int FOOD = 2;
+	public static final int PORTAL = 3;
+
+	public static final float FOOD_REWARD = 1;
+	public static final float DEATH_REWARD = -1;
+	public static final float STEP_REWARD = 0;
+
+	private final Simulation simulation;
+	private final int CELLS;
+	/* The episode ends when the snake goes this long without eating */
+	private final int STARVATION_LIMIT;
+	private FloatBuffer floats;
+	private ByteBuffer bytes;
+	private int offset;
+	private boolean done = true;
+	private boolean truncated;
+	private int hunger;
+
+	public SnakeEnv(int columns, int rows) {
+		this(new Simulation(columns, rows, 0));
+	}
+
+	public SnakeEnv(Level level) {
+		this(new Simulation(level, 0));
+	}
+
+	private SnakeEnv(Simulation simulation) {
+		this.simulation = simulation;
+		CELLS = simulation.getBoard().getCellCount();
+		STARVATION_LIMIT = Math.max(CELLS, 64);
+	}
+
+	public Simulation getSimulation() {
+		return simulation;
+	}
+
+	/**
+	 * The number of values in an observation.
+	 */
+	public int getObservationSize() {
+		return CHANNELS * CELLS;
+	}
+
+	/**
+	 * Write the observations into the buffer, from the index offset on, and
+	 * write the current one right away.
+	 *
+	 * @param buffer
+	 * @param offset
+	 */
+	public void setObservation(FloatBuffer buffer, int offset) {
+		floats = buffer;
+		bytes = null;
+		this.offset = offset;
+		writeAll();
+	}
+
+	public void setObservation(ByteBuffer buffer, int offset) {
+		floats = null;
+		bytes = buffer;
+		this.offset = offset;
+		writeAll();
+	}
+
+	/**
+	 * Start a new episode.
+	 *
+	 * @param seed
+	 */
+	public void reset(long seed) {
+		simulation.reset(seed);
+		done = false;
+		truncated = false;
+		hunger = 0;
+		writeAll();
+	}
+
+	/**
+	 * Play one tick.
+	 *
+	 * @param action
+	 *            the direction to turn to, or NONE
+	 * @return the reward
+	 */
+	public float step(int action) {
+		if (done)
+			throw new IllegalStateException("The episode is over");
+		SnakeBody body = simulation.getBody();
+		int neck = body.getHead();
+		int food = simulation.getFood();
+		int result = simulation.step(action);
+		if (result == Simulation.DIED) {
+			done = true;
+			return DEATH_REWARD;
+		}
+
+		int removedTail = simulation.getRemovedTail();
+		if (removedTail >= 0)
+			write(BODY, removedTail, 0);
+		write(HEAD, neck, 0);
+		write(BODY, body.getHead(), 1);
+		write(HEAD, body.getHead(), 1);
+		if (result == Simulation.MOVED) {
+			if (++hunger >= STARVATION_LIMIT) {
+				done = true;
+				truncated = true;
+			}
+			return STEP_REWARD;
+		}
+		write(FOOD, food, 0);
+		if (simulation.getFood() >= 0)
+			write(FOOD, simulation.getFood(), 1);
+		hunger = 0;
+		done = result == Simulation.WON;
+		return FOOD_REWARD;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Whether the episode was cut off because the snake starved, rather than
+	 * ended by the game. The next reset() clears it, so a SnakeVectorEnv
+	 * reports it in the truncations of the step which ended the episode.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public int getScore() {
+		return simulation.getScore();
+	}
+
+	private void writeAll() {
+		if (floats == null && bytes == null)
+			return;
+		for (int i = 0; i < CHANNELS * CELLS; i++)
+			if (floats != null)
+				floats.put(offset + i, 0);
+			else
+				bytes.put(offset + i, (byte) 0);
+		Level level = simulation.getLevel();
+		if (level != null) {
+			for (int wall = level.nextWall(0); wall >= 0; wall = level
+					.nextWall(wall + 1))
+				write(BODY, wall, 1);
+			for (int i = 0; i < level.getPortalCount(); i++) {
+				write(PORTAL, level.getPortal(i, 0), 1);
+				write(PORTAL, level.getPortal(i, 1), 1);
+			}
+		}
+		SnakeBody body = simulation.getBody();
+		for (int i = 0; i < body.size(); i++)
+			write(BODY, body.get(i), 1);
+		write(HEAD, body.getHead(), 1);
+		if (simulation.getFood() >= 0)
+			write(FOOD, simulation.getFood(), 1);
+	}
+
+	private void write(int channel, int cell, int value) {
+		int index = offset + channel * CELLS + cell;
+		if (floats != null)
+			floats.put(index, value);
+		else if (bytes != null)
+			bytes.put(index, (byte) value);
+	}
+}
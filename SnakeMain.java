@@ -1,7 +1,84 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class SnakeMain {
 
-	public static void main(String[] args) {
-		new Game("Snake", 250, 250, "Medium");
+	/**
+	 * Arguments: -record FILE to record each game into the file, -replay FILE
+	 * to watch a recorded game, -config FILE to read the settings from a
+	 * properties file instead of ~/.snake/snake.properties, -serve PORT to
+	 * play the game on a server without a window, on an empty board since
+	 * the clients are not sent the walls of a level, -connect HOST:PORT to play
+	 * or watch the game of a server, -export DIR with -replay FILE to write
+	 * the frames of the recorded game as PNG files without a window, and
+	 * -KEY VALUE to change one of the settings of GameConfig, like -columns
+	 * 100 or -level maze.level.
+	 */
+	public static void main(String[] args) throws IOException {
+		GameConfig config = new GameConfig();
+		Path configFile = Paths.get(System.getProperty("user.home"), ".snake",
+				"snake.properties");
+		for (int i = 0; i + 1 < args.length; i += 2)
+			if (args[i].equals("-config"))
+				configFile = Paths.get(args[i + 1]);
+		if (Files.exists(configFile))
+			config.load(configFile);
+		else
+			config.setSource(configFile);
+		Path recordFile = null;
+		Path replayFile = null;
+		int port = -1;
+		String server = null;
+		Path exportDirectory = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-record"))
+				recordFile = Paths.get(args[i + 1]);
+			else if (args[i].equals("-replay"))
+				replayFile = Paths.get(args[i + 1]);
+			else if (args[i].equals("-serve"))
+				port = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-connect"))
+				server = args[i + 1];
+			else if (args[i].equals("-export"))
+				exportDirectory = Paths.get(args[i + 1]);
+			else if (!args[i].equals("-config") && args[i].startsWith("-"))
+				config.set(args[i].substring(1), args[i + 1]);
+		}
+
+		if (port >= 0) {
+			if (config.getLevel() != null) {
+				System.err.println("The server cannot play on a level, "
+						+ "remove the level setting to serve");
+				System.exit(1);
+			}
+			SnakeServer snakeServer = new SnakeServer(port,
+					config.getColumns(), config.getRows(),
+					config.getTickRate(config.getDifficulty()));
+			System.out.println("Serving on port " + snakeServer.getPort());
+			snakeServer.run();
+			return;
+		}
+
+		if (exportDirectory != null && replayFile != null) {
+			long frames = FrameExporter.export(new GameReplayer(replayFile),
+					exportDirectory, config.getCellSize());
+			System.out.println(frames + " frames written to "
+					+ exportDirectory);
+			return;
+		}
+
+		Game game = new Game("Snake", config);
+		if (recordFile != null)
+			game.setRecordFile(recordFile);
+		if (replayFile != null)
+			game.replay(replayFile);
+		if (server != null) {
+			int colon = server.lastIndexOf(':');
+			game.connect(new InetSocketAddress(server.substring(0, colon),
+					Integer.parseInt(server.substring(colon + 1))));
+		}
 	}
 }
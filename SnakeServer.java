@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Plays the game on a server, which is the authority over the simulation, and
+ * sends every tick to the connected clients. All the connections are served
+ * by one thread through a non-blocking selector. The first client to connect
+ * steers the snake by sending one byte per direction; the others watch, and
+ * take over in the order they connected when the player leaves. The
+ * directions of the player go through an InputQueue as the keys of the game
+ * do, so each tick takes the next of the last 3 directions which turns the
+ * snake, and a direction sent just before another one is not lost.
+ *
+ * A client first gets a key frame with the whole state, then one delta frame
+ * per tick with only what changed, so the bandwidth does not depend on the
+ * length of the snake. All numbers are big-endian:
+ *
+ * <pre>
+ * key frame:   0 columns(4) rows(4) tick(8) direction(1) food(4) over(1)
+ *              length(4) cells(4 each, from the tail to the head)
+ * delta frame: 1 flags(1) head(4) [tail(4)] [food(4)]
+ * </pre>
+ *
+ * The flags tell whether the tail moved (TAIL), the food moved (FOOD) and
+ * whether the game is over (OVER). The head is -1 if the snake did not move.
+ * When a game is over, a new one starts after a short while with a new key
+ * frame. A client which cannot keep up with the frames is disconnected.
+ */
+public class SnakeServer {
+
+	public static final byte KEYFRAME = 0;
+	public static final byte DELTA = 1;
+	public static final int TAIL = 1;
+	public static final int FOOD = 2;
+	public static final int OVER = 4;
+
+	/* The frames waiting to be sent to a client before it is too slow */
+	private static final int OUTPUT_SIZE = 1 << 14;
+	/* The ticks between the end of a game and the start of the next */
+	private static final int RESTART_TICKS = 20;
+
+	private final int COLUMNS;
+	private final int ROWS;
+	private final long PERIOD;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	/* The connected clients, the player first */
+	private final ArrayList<Client> clients = new ArrayList<Client>();
+	private final ByteBuffer frame = ByteBuffer.allocate(14);
+	private final ByteBuffer input = ByteBuffer.allocate(64);
+	private Simulation simulation;
+	private int lastFood;
+	private int overTicks;
+
+	/**
+	 * Open the server on the port.
+	 *
+	 * @param port
+	 * @param columns
+	 * @param rows
+	 * @param tickRate
+	 *            the ticks per second
+	 * @throws IOException
+	 */
+	public SnakeServer(int port, int columns, int rows, double tickRate)
+			throws IOException {
+		COLUMNS = columns;
+		ROWS = rows;
+		PERIOD = (long) (1e9 / tickRate);
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		newGame();
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * Serve the clients and play the game until the thread is interrupted.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		long nextTick = System.nanoTime() + PERIOD;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long wait = nextTick - System.nanoTime();
+				if (wait > 0)
+					selector.select(Math.max(1, wait / 1000000));
+				else
+					selector.selectNow();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else
+						serve(key);
+				}
+				if (System.nanoTime() - nextTick >= 0) {
+					tick();
+					nextTick += PERIOD;
+					/* Do not try to catch up after a long stall */
+					if (System.nanoTime() - nextTick > PERIOD)
+						nextTick = System.nanoTime() + PERIOD;
+				}
+			}
+		} finally {
+			close();
+		}
+	}
+
+	public void close() throws IOException {
+		for (Client client : clients)
+			client.channel.close();
+		clients.clear();
+		server.close();
+		selector.close();
+	}
+
+	private void newGame() {
+		simulation = new Simulation(COLUMNS, ROWS, System.nanoTime());
+		lastFood = simulation.getFood();
+		overTicks = 0;
+		for (int i = clients.size() - 1; i >= 0; i--) {
+			clients.get(i).inputs.clear();
+			sendKeyframe(clients.get(i));
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(channel);
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client);
+		sendKeyframe(client);
+	}
+
+	private void serve(SelectionKey key) {
+		Client client = (Client) key.attachment();
+		try {
+			if (key.isReadable()) {
+				input.clear();
+				int read = client.channel.read(input);
+				if (read < 0) {
+					disconnect(client);
+					return;
+				}
+				/* Only the player steers */
+				if (client == clients.get(0)) {
+					long now = System.nanoTime();
+					for (int i = 0; i < read; i++)
+						if (input.get(i) >= 0 && input.get(i) < 4)
+							client.inputs.offer(input.get(i), now);
+				}
+			}
+			if (key.isValid() && key.isWritable())
+				flush(client);
+		} catch (IOException e) {
+			disconnect(client);
+		}
+	}
+
+	private void tick() {
+		if (simulation.isOver()) {
+			if (++overTicks >= RESTART_TICKS)
+				newGame();
+			return;
+		}
+		int direction = Simulation.NONE;
+		if (!clients.isEmpty())
+			direction = clients.get(0).inputs.poll(simulation.getDirection());
+		int result = simulation.step(direction);
+
+		int removedTail = simulation.getRemovedTail();
+		int food = simulation.getFood();
+		int flags = 0;
+		if (removedTail >= 0)
+			flags |= TAIL;
+		if (food != lastFood)
+			flags |= FOOD;
+		if (simulation.isOver())
+			flags |= OVER;
+		frame.clear();
+		frame.put(DELTA).put((byte) flags);
+		frame.putInt(result == Simulation.DIED ? -1 : simulation.getBody()
+				.getHead());
+		if (removedTail >= 0)
+			frame.putInt(removedTail);
+		if (food != lastFood)
+			frame.putInt(food);
+		frame.flip();
+		lastFood = food;
+		for (int i = clients.size() - 1; i >= 0; i--)
+			send(clients.get(i), frame);
+	}
+
+	private void sendKeyframe(Client client) {
+		SnakeBody body = simulation.getBody();
+		ByteBuffer keyframe = ByteBuffer.allocate(27 + 4 * body.size());
+		keyframe.put(KEYFRAME).putInt(COLUMNS).putInt(ROWS)
+				.putLong(simulation.getTick())
+				.put((byte) simulation.getDirection())
+				.putInt(simulation.getFood())
+				.put((byte) (simulation.isOver() ? 1 : 0))
+				.putInt(body.size());
+		for (int i = 0; i < body.size(); i++)
+			keyframe.putInt(body.get(i));
+		keyframe.flip();
+		/* A new game starts long after the last frame of the previous one */
+		if (client.keyframe != null || client.output.position() > 0) {
+			disconnect(client);
+			return;
+		}
+		client.keyframe = keyframe;
+		try {
+			flush(client);
+		} catch (IOException e) {
+			disconnect(client);
+		}
+	}
+
+	private void send(Client client, ByteBuffer frame) {
+		if (client.output.remaining() < frame.remaining()) {
+			disconnect(client);
+			return;
+		}
+		client.output.put(frame.duplicate());
+		try {
+			flush(client);
+		} catch (IOException e) {
+			disconnect(client);
+		}
+	}
+
+	/* Write as much of the queued frames as the socket takes right now */
+	private void flush(Client client) throws IOException {
+		if (client.keyframe != null) {
+			client.channel.write(client.keyframe);
+			if (client.keyframe.hasRemaining()) {
+				client.key.interestOps(SelectionKey.OP_READ
+						| SelectionKey.OP_WRITE);
+				return;
+			}
+			client.keyframe = null;
+		}
+		client.output.flip();
+		client.channel.write(client.output);
+		boolean pending = client.output.hasRemaining();
+		client.output.compact();
+		client.key.interestOps(pending ? SelectionKey.OP_READ
+				| SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private void disconnect(Client client) {
+		int index = clients.indexOf(client);
+		if (index < 0)
+			return;
+		clients.remove(index);
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			System.err.println("Cannot close a connection: " + e);
+		}
+	}
+
+	private static class Client {
+
+		final SocketChannel channel;
+		final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+		/* The directions sent while the client is the player */
+		final InputQueue inputs = new InputQueue(16);
+		SelectionKey key;
+		/* A key frame not yet fully sent, which goes before the output */
+		ByteBuffer keyframe;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Arguments: port [columns rows [ticks per second]].
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		int columns = args.length > 2 ? Integer.parseInt(args[1]) : 25;
+		int rows = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+		double tickRate = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+		SnakeServer server = new SnakeServer(port, columns, rows, tickRate);
+		System.out.println("Serving a " + columns + "x" + rows
+				+ " board on port " + server.getPort());
+		server.run();
+	}
+}
@@ -0,0 +1,156 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A batch of SnakeEnv stepped together with one call, which is what training
+ * jobs consume. The observations of all the environments are laid out one
+ * after another in a single buffer given by the caller. An environment whose
+ * episode ends is reset at once, so its observation shows the start of the
+ * next episode, and the end is reported in the dones of that step, and in
+ * the truncations if the episode was cut off rather than ended by the game,
+ * both written before the reset. The seeds
+ * of the episodes are derived from the seed of the batch, so a run can be
+ * repeated exactly.
+ */
+public class SnakeVectorEnv {
+
+	/* The environments stepped by a task without splitting it further */
+	private static final int CHUNK = 64;
+
+	private final SnakeEnv[] envs;
+	private final long SEED;
+	private final long[] episodes;
+
+	public SnakeVectorEnv(int count, int columns, int rows, long seed) {
+		envs = new SnakeEnv[count];
+		for (int i = 0; i < count; i++)
+			envs[i] = new SnakeEnv(columns, rows);
+		SEED = seed;
+		episodes = new long[count];
+	}
+
+	/**
+	 * A batch of environments all on the same level, which share its walls
+	 * and distance fields.
+	 */
+	public SnakeVectorEnv(int count, Level level, long seed) {
+		envs = new SnakeEnv[count];
+		for (int i = 0; i < count; i++)
+			envs[i] = new SnakeEnv(level);
+		SEED = seed;
+		episodes = new long[count];
+	}
+
+	public int size() {
+		return envs.length;
+	}
+
+	public SnakeEnv get(int i) {
+		return envs[i];
+	}
+
+	/**
+	 * The number of values in the observations of all the environments.
+	 */
+	public int getObservationSize() {
+		return envs.length * envs[0].getObservationSize();
+	}
+
+	public void setObservations(FloatBuffer buffer) {
+		int size = envs[0].getObservationSize();
+		for (int i = 0; i < envs.length; i++)
+			envs[i].setObservation(buffer, i * size);
+	}
+
+	public void setObservations(ByteBuffer buffer) {
+		int size = envs[0].getObservationSize();
+		for (int i = 0; i < envs.length; i++)
+			envs[i].setObservation(buffer, i * size);
+	}
+
+	/**
+	 * Start a new episode in every environment.
+	 */
+	public void reset() {
+		for (int i = 0; i < envs.length; i++)
+			envs[i].reset(seedOf(i));
+	}
+
+	/**
+	 * Play one tick in every environment.
+	 *
+	 * @param actions
+	 *            the action of each environment
+	 * @param rewards
+	 *            receives the reward of each environment
+	 * @param dones
+	 *            receives whether the episode of each environment ended
+	 * @param truncations
+	 *            receives whether the episode of each environment was cut
+	 *            off, see SnakeEnv.isTruncated()
+	 */
+	public void step(int[] actions, float[] rewards, boolean[] dones,
+			boolean[] truncations) {
+		step(0, envs.length, actions, rewards, dones, truncations);
+	}
+
+	/**
+	 * Play one tick in every environment, in parallel on the pool.
+	 */
+	public void step(ForkJoinPool pool, int[] actions, float[] rewards,
+			boolean[] dones, boolean[] truncations) {
+		pool.invoke(new StepTask(0, envs.length, actions, rewards, dones,
+				truncations));
+	}
+
+	private void step(int from, int to, int[] actions, float[] rewards,
+			boolean[] dones, boolean[] truncations) {
+		for (int i = from; i < to; i++) {
+			SnakeEnv env = envs[i];
+			if (env.isDone())
+				env.reset(seedOf(i));
+			rewards[i] = env.step(actions[i]);
+			dones[i] = env.isDone();
+			truncations[i] = env.isTruncated();
+			if (dones[i])
+				env.reset(seedOf(i));
+		}
+	}
+
+	private long seedOf(int i) {
+		return SEED + i + (long) envs.length * episodes[i]++;
+	}
+
+	private class StepTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+		private final int[] actions;
+		private final float[] rewards;
+		private final boolean[] dones;
+		private final boolean[] truncations;
+
+		StepTask(int from, int to, int[] actions, float[] rewards,
+				boolean[] dones, boolean[] truncations) {
+			this.from = from;
+			this.to = to;
+			this.actions = actions;
+			this.rewards = rewards;
+			this.dones = dones;
+			this.truncations = truncations;
+		}
+
+		protected void compute() {
+			if (to - from <= CHUNK) {
+				step(from, to, actions, rewards, dones, truncations);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new StepTask(from, middle, actions, rewards, dones,
+					truncations), new StepTask(middle, to, actions, rewards,
+					dones, truncations));
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * How the game speeds up as it goes on. The tick rate of the difficulty is
+ * multiplied by a factor which grows smoothly with the score and with the
+ * part of the board which the snake fills, from 1 at the start towards a
+ * maximum which it never quite reaches:
+ *
+ * <pre>
+ * factor = 1 + (max - 1) * (1 - exp(-(score * scoreGain + fill * fillGain)))
+ * </pre>
+ *
+ * The curve is immutable, so a new one can be handed to a running game at
+ * any time.
+ */
+public class SpeedCurve {
+
+	/** A curve which keeps the tick rate of the difficulty */
+	public static final SpeedCurve CONSTANT = new SpeedCurve(1, 0, 0);
+
+	private final double MAX_FACTOR;
+	private final double SCORE_GAIN;
+	private final double FILL_GAIN;
+
+	/**
+	 * @param maxFactor
+	 *            the most times faster the game gets, at least 1
+	 * @param scoreGain
+	 *            how fast the game speeds up with each point
+	 * @param fillGain
+	 *            how fast the game speeds up as the snake fills the board
+	 * @throws IllegalArgumentException
+	 *             if a value is out of range
+	 */
+	public SpeedCurve(double maxFactor, double scoreGain, double fillGain) {
+		if (!(maxFactor >= 1))
+			throw new IllegalArgumentException("Bad speed up factor: "
+					+ maxFactor);
+		if (!(scoreGain >= 0) || !(fillGain >= 0))
+			throw new IllegalArgumentException("Bad speed up gain: "
+					+ scoreGain + ", " + fillGain);
+		MAX_FACTOR = maxFactor;
+		SCORE_GAIN = scoreGain;
+		FILL_GAIN = fillGain;
+	}
+
+	public double getMaxFactor() {
+		return MAX_FACTOR;
+	}
+
+	public double getScoreGain() {
+		return SCORE_GAIN;
+	}
+
+	public double getFillGain() {
+		return FILL_GAIN;
+	}
+
+	/**
+	 * How many times faster than the tick rate of the difficulty the game
+	 * runs.
+	 *
+	 * @param score
+	 * @param fill
+	 *            the part of the board filled by the snake, from 0 to 1
+	 */
+	public double getFactor(int score, double fill) {
+		double x = score * SCORE_GAIN + fill * FILL_GAIN;
+		return 1 + (MAX_FACTOR - 1) * -Math.expm1(-x);
+	}
+
+	/**
+	 * The nanoseconds between two ticks.
+	 *
+	 * @param tickRate
+	 *            the ticks per second at the start
+	 * @param score
+	 * @param fill
+	 */
+	public long getPeriod(double tickRate, int score, double fill) {
+		return Math.max(1, Math.round(1e9 / (tickRate * getFactor(score,
+				fill))));
+	}
+
+	public String toString() {
+		return "SpeedCurve[max=" + MAX_FACTOR + ", score=" + SCORE_GAIN
+				+ ", fill=" + FILL_GAIN + "]";
+	}
+}
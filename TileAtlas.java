@@ -0,0 +1,218 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Pre-rendered images of everything drawn on the board, so that a frame is
+ * composed of one image copy per cell instead of several rectangles with
+ * color changes in between. A unit of the snake is drawn according to which
+ * of its four sides it is joined to the units before and after it, which
+ * gives 16 tiles. The food has a tile for its current color, and the score is
+ * drawn from cached images of its label and digits, so drawing it creates no
+ * strings. The tiles are drawn again only when the colors or the font change.
+ * The images are compatible with the screen, if there is one, so copying
+ * them is fast.
+ */
+public class TileAtlas {
+
+	private final int CELL;
+	private final int SEGMENT;
+	private final int JOINT;
+	private final int FOOD;
+	private final GraphicsConfiguration configuration;
+
+	private final BufferedImage[] segments = new BufferedImage[16];
+	private Color boardColor;
+	private Color snakeColor;
+	private Color jointColor;
+
+	private BufferedImage food;
+	private Color foodColor;
+
+	private Font font;
+	private Color textColor;
+	private BufferedImage label;
+	private final BufferedImage[] digits = new BufferedImage[10];
+	private int labelWidth;
+	private int digitWidth;
+	private int ascent;
+
+	/**
+	 * @param cellSize
+	 *            the size of a cell in pixels
+	 */
+	public TileAtlas(int cellSize) {
+		/* At 10 pixels a cell: a 9 pixel segment, 8 pixel food, 2 pixel joints */
+		CELL = cellSize;
+		SEGMENT = Math.max(1, cellSize - Math.max(1, cellSize / 10));
+		FOOD = Math.max(1, cellSize - Math.max(2, cellSize / 5));
+		JOINT = Math.min(cellSize, Math.max(2, cellSize / 5));
+		configuration = GraphicsEnvironment.isHeadless() ? null
+				: GraphicsEnvironment.getLocalGraphicsEnvironment()
+						.getDefaultScreenDevice().getDefaultConfiguration();
+	}
+
+	public int getCellSize() {
+		return CELL;
+	}
+
+	/**
+	 * The bit of the sides of a unit which is joined to the next unit in the
+	 * given direction.
+	 */
+	public static int sideOf(int direction) {
+		return 1 << direction;
+	}
+
+	/**
+	 * The bit of the side of a unit of the snake at the cell which is joined
+	 * to the unit at the other cell, or 0 if the cells are not next to each
+	 * other, as across a portal.
+	 */
+	public static int sideBetween(Board board, int cell, int other) {
+		int columns = board.getColumns();
+		if (other == cell - columns)
+			return sideOf(Simulation.UP);
+		if (other == cell + columns)
+			return sideOf(Simulation.DOWN);
+		if (board.rowOf(other) != board.rowOf(cell))
+			return 0;
+		if (other == cell - 1)
+			return sideOf(Simulation.LEFT);
+		if (other == cell + 1)
+			return sideOf(Simulation.RIGHT);
+		return 0;
+	}
+
+	/**
+	 * Get the tile of a unit of the snake joined on the given sides.
+	 *
+	 * @param sides
+	 *            the bits of sideOf() of the joined sides
+	 */
+	public BufferedImage getSegment(int sides, Color board, Color snake,
+			Color joint) {
+		if (!board.equals(boardColor) || !snake.equals(snakeColor)
+				|| !joint.equals(jointColor)) {
+			boardColor = board;
+			snakeColor = snake;
+			jointColor = joint;
+			for (int i = 0; i < segments.length; i++)
+				segments[i] = null;
+		}
+		BufferedImage tile = segments[sides];
+		if (tile == null) {
+			tile = createImage(CELL, CELL, Transparency.OPAQUE);
+			Graphics g = tile.createGraphics();
+			g.setColor(board);
+			g.fillRect(0, 0, CELL, CELL);
+			g.setColor(snake);
+			g.fillRect(0, 0, SEGMENT, SEGMENT);
+			/* The half of each joint which lies in this cell */
+			g.setColor(joint);
+			if ((sides & sideOf(Simulation.UP)) != 0)
+				g.fillRect(0, -JOINT / 2, SEGMENT, JOINT);
+			if ((sides & sideOf(Simulation.RIGHT)) != 0)
+				g.fillRect(CELL - JOINT / 2, 0, JOINT, SEGMENT);
+			if ((sides & sideOf(Simulation.DOWN)) != 0)
+				g.fillRect(0, CELL - JOINT / 2, SEGMENT, JOINT);
+			if ((sides & sideOf(Simulation.LEFT)) != 0)
+				g.fillRect(-JOINT / 2, 0, JOINT, SEGMENT);
+			g.dispose();
+			segments[sides] = tile;
+		}
+		return tile;
+	}
+
+	public BufferedImage getFood(Color color) {
+		if (!color.equals(foodColor)) {
+			foodColor = color;
+			food = createImage(CELL, CELL, Transparency.OPAQUE);
+			Graphics g = food.createGraphics();
+			g.setColor(color.darker());
+			g.fillRect(0, 0, CELL, CELL);
+			g.setColor(color);
+			g.fillRect(0, 0, FOOD, FOOD);
+			g.dispose();
+		}
+		return food;
+	}
+
+	/**
+	 * Draw "Score: " and the score with the font and color of the graphics,
+	 * the baseline at y.
+	 */
+	public void drawScore(Graphics g, int score, int x, int y) {
+		prepareFont(g);
+		g.drawImage(label, x, y - ascent, null);
+		x += labelWidth;
+		int divisor = 1;
+		while (divisor <= score / 10)
+			divisor *= 10;
+		for (; divisor > 0; divisor /= 10) {
+			g.drawImage(digits[score / divisor % 10], x, y - ascent, null);
+			x += digitWidth;
+		}
+	}
+
+	/**
+	 * The width of the score as drawScore() draws it in the font of the
+	 * metrics.
+	 */
+	public static int getScoreWidth(FontMetrics metrics, int score) {
+		int width = metrics.stringWidth("Score: ");
+		do {
+			width += metrics.charWidth('0');
+			score /= 10;
+		} while (score > 0);
+		return width;
+	}
+
+	/* Render the label and the digits, if the font or color changed */
+	private void prepareFont(Graphics g) {
+		if (g.getFont().equals(font) && label != null
+				&& g.getColor().equals(textColor))
+			return;
+		font = g.getFont();
+		textColor = g.getColor();
+		FontMetrics metrics = g.getFontMetrics(font);
+		ascent = metrics.getAscent();
+		labelWidth = metrics.stringWidth("Score: ");
+		/* The digits of most fonts have the same width */
+		digitWidth = metrics.charWidth('0');
+		label = renderText("Score: ", labelWidth, metrics);
+		for (int i = 0; i < 10; i++)
+			digits[i] = renderText(String.valueOf(i), digitWidth, metrics);
+	}
+
+	private BufferedImage renderText(String text, int width,
+			FontMetrics metrics) {
+		BufferedImage image = createImage(Math.max(width, 1),
+				metrics.getAscent() + metrics.getDescent(),
+				Transparency.TRANSLUCENT);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setFont(font);
+		g.setColor(textColor);
+		g.drawString(text, 0, metrics.getAscent());
+		g.dispose();
+		return image;
+	}
+
+	private BufferedImage createImage(int width, int height, int transparency) {
+		if (configuration != null)
+			return configuration.createCompatibleImage(width, height,
+					transparency);
+		return new BufferedImage(width, height,
+				transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+						: BufferedImage.TYPE_INT_ARGB);
+	}
+}
@@ -0,0 +1,58 @@
+package snake.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The workloads of SnakeBenchmark under JMH. JMH does not generate
+ * benchmarks in the default package, and the game cannot be imported from
+ * another one, so the workload is created through reflection once, and the
+ * measured call goes straight to it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameLoopBenchmark {
+
+	@Param({ "tick", "isDead", "placeFood", "autopilot", "fullGame", "render",
+			"frameChanges", "frameRender", "vectorEnv", "arena" })
+	public String benchmark;
+
+	/* The workloads fit themselves to the large boards, see workload() */
+	@Param({ "25", "64", "256", "1024", "4096" })
+	public int size;
+
+	/* The snake length, the number of snakes or of environments */
+	@Param("16")
+	public int length;
+
+	private LongSupplier workload;
+
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		System.setProperty("java.awt.headless", "true");
+		workload = (LongSupplier) Class.forName("SnakeBenchmark")
+				.getMethod("workload", String.class, int.class, int.class)
+				.invoke(null, benchmark, size, length);
+	}
+
+	@Benchmark
+	public long operation() {
+		return workload.getAsLong();
+	}
+}
@@ -0,0 +1,159 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameLoopTest {
+
+	private static final long PERIOD = 20000;
+	private static final long TIMEOUT = 2000000000L;
+
+	private final AtomicInteger updating = new AtomicInteger();
+	private final AtomicLong updates = new AtomicLong();
+	private final AtomicReference<String> failure = new AtomicReference<String>();
+	private GameLoop loop;
+
+	@Before
+	public void setUp() {
+		loop = new GameLoop(new GameLoop.Game() {
+			public long getPeriod() {
+				return PERIOD;
+			}
+
+			public void started() {
+			}
+
+			public void update() {
+				if (updating.incrementAndGet() != 1)
+					failure.compareAndSet(null, "Two updates at once");
+				if (Thread.currentThread() != loop.getThread())
+					failure.compareAndSet(null, "An update by an old loop");
+				updates.incrementAndGet();
+				updating.decrementAndGet();
+			}
+
+			public void render() {
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		loop.stop();
+	}
+
+	@Test
+	public void everyTransitionLeavesALiveLoop() throws InterruptedException {
+		Random random = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			apply(loop, random.nextInt(5));
+			assertLoop();
+		}
+		assertEquals(null, failure.get());
+	}
+
+	@Test
+	public void concurrentTransitionsLeaveOneLoop() throws InterruptedException {
+		for (int round = 0; round < 200; round++) {
+			hammer(4, 200, round);
+			assertLoop();
+			/* Bring the game to running, however the hammering left it */
+			loop.unpause();
+			if (loop.renew(null) || loop.getState() == GameState.NEW)
+				assertTrue(loop.start());
+			assertSame(GameState.RUNNING, loop.getState());
+			assertLoop();
+			assertEquals(1, liveLoops());
+			assertEquals(null, failure.get());
+		}
+	}
+
+	/*
+	 * Check that a running or paused game has a live loop, and that a running
+	 * game is updated.
+	 */
+	private void assertLoop() throws InterruptedException {
+		GameState state = loop.getState();
+		if (state != GameState.RUNNING && state != GameState.PAUSED)
+			return;
+		Thread thread = loop.getThread();
+		assertTrue("No loop while " + state, thread != null && thread.isAlive());
+		if (state == GameState.PAUSED)
+			return;
+		long before = updates.get();
+		long deadline = System.nanoTime() + TIMEOUT;
+		while (updates.get() == before) {
+			if (System.nanoTime() > deadline)
+				fail("The game is running and nothing updates it");
+			Thread.sleep(1);
+		}
+	}
+
+	/* The loop threads alive, once the old loops had the time to finish */
+	private static int liveLoops() throws InterruptedException {
+		long deadline = System.nanoTime() + TIMEOUT;
+		while (true) {
+			int alive = 0;
+			for (Thread thread : Thread.getAllStackTraces().keySet())
+				if (thread.getName().equals("Game Loop") && thread.isAlive())
+					alive++;
+			if (alive <= 1 || System.nanoTime() > deadline)
+				return alive;
+			Thread.sleep(1);
+		}
+	}
+
+	/* Run the transitions from several threads released at once */
+	private void hammer(int threadCount, final int transitions, int seed)
+			throws InterruptedException {
+		final CountDownLatch ready = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final Random random = new Random(seed * threadCount + i);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						ready.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < transitions; j++)
+						apply(loop, random.nextInt(5));
+				}
+			};
+			threads[i].start();
+		}
+		ready.countDown();
+		for (Thread thread : threads)
+			thread.join();
+	}
+
+	private static void apply(GameLoop loop, int transition) {
+		switch (transition) {
+		case 0:
+			loop.pause();
+			break;
+		case 1:
+			loop.unpause();
+			break;
+		case 2:
+			loop.stop();
+			break;
+		case 3:
+			loop.renew(null);
+			break;
+		default:
+			loop.start();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LevelTest {
+
+	/* A room of 8x3 free cells, with free cells around and below it */
+	private static final Level ROOM = Level.parse(Arrays.asList(
+			"            ",
+			" ########## ",
+			" #        # ",
+			" #   >    # ",
+			" #        # ",
+			" ########## ",
+			"",
+			"   #"));
+
+	@Test
+	public void fixesTheCellsOutsideTheRoom() {
+		Board board = ROOM.newBoard();
+		assertEquals(24, board.getOpenCount());
+		for (int cell = 0; cell < board.getCellCount(); cell++)
+			assertEquals("cell " + cell, !inRoom(cell), board.isFixed(cell));
+	}
+
+	@Test
+	public void placesFoodOnlyInTheRoom() {
+		for (long seed = 0; seed < 200; seed++) {
+			Simulation simulation = new Simulation(ROOM, seed);
+			Autopilot autopilot = new Autopilot();
+			for (int tick = 0; tick < 100 && !simulation.isOver(); tick++) {
+				int food = simulation.getFood();
+				assertTrue("seed " + seed, food < 0 || inRoom(food));
+				simulation.step(autopilot.nextDirection(simulation));
+			}
+		}
+	}
+
+	@Test
+	public void keepsTheCellsReachedThroughAPortal() {
+		Level level = Level.parse(Arrays.asList(
+				"#####     ",
+				"#< a#  a  ",
+				"#####     "));
+		Board board = level.newBoard();
+		/* Two cells in the room and all the cells around the other end */
+		assertEquals(2 + 14, board.getOpenCount());
+	}
+
+	private static boolean inRoom(int cell) {
+		int column = cell % 12;
+		int row = cell / 12;
+		return column >= 2 && column <= 9 && row >= 2 && row <= 4;
+	}
+}
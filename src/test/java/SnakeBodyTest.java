@@ -0,0 +1,125 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SnakeBodyTest {
+
+	@Test
+	public void wrapsAroundTheBuffer() {
+		SnakeBody body = new SnakeBody(100);
+		for (int cell = 0; cell < 10; cell++)
+			body.addHead(cell);
+		/* Moving 30 times takes the tail around the buffer of 16 twice */
+		for (int cell = 10; cell < 40; cell++) {
+			body.addHead(cell);
+			assertEquals(cell - 10, body.removeTail());
+			assertOrder(body, cell - 9, cell);
+		}
+	}
+
+	@Test
+	public void growsWhileWrappedAround() {
+		SnakeBody body = new SnakeBody(1000);
+		for (int cell = 0; cell < 16; cell++)
+			body.addHead(cell);
+		for (int cell = 16; cell < 26; cell++) {
+			body.addHead(cell);
+			body.removeTail();
+		}
+		/* The body runs over the end of the buffer when it has to grow */
+		for (int cell = 26; cell < 300; cell++) {
+			body.addHead(cell);
+			assertOrder(body, 10, cell);
+		}
+	}
+
+	@Test
+	public void matchesADequeInRandomMoves() {
+		Random random = new Random(1);
+		SnakeBody body = new SnakeBody(500);
+		ArrayDeque<Integer> expected = new ArrayDeque<Integer>();
+		for (int move = 0; move < 100000; move++) {
+			if (expected.size() < 500 && (expected.isEmpty()
+					|| random.nextInt(3) > 0)) {
+				int cell = random.nextInt(1 << 20);
+				body.addHead(cell);
+				expected.addLast(cell);
+			} else {
+				assertEquals(expected.removeFirst().intValue(),
+						body.removeTail());
+			}
+			assertEquals(expected.size(), body.size());
+			if (move % 97 == 0) {
+				Iterator<Integer> cells = expected.iterator();
+				for (int i = 0; i < body.size(); i++)
+					assertEquals(cells.next().intValue(), body.get(i));
+			}
+			if (!expected.isEmpty()) {
+				assertEquals(expected.getFirst().intValue(), body.getTail());
+				assertEquals(expected.getLast().intValue(), body.getHead());
+			}
+		}
+	}
+
+	@Test
+	public void stopsAtTheCapacity() {
+		SnakeBody body = new SnakeBody(20);
+		for (int cell = 0; cell < 20; cell++)
+			body.addHead(cell);
+		try {
+			body.addHead(20);
+			fail("The body grew beyond its capacity");
+		} catch (IllegalStateException e) {
+		}
+		assertOrder(body, 0, 19);
+		body.clear();
+		assertTrue(body.isEmpty());
+		try {
+			body.removeTail();
+			fail("A tail was removed from an empty body");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void movesWithoutAllocating() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		SnakeBody body = new SnakeBody(10000);
+		for (int cell = 0; cell < 1000; cell++)
+			body.addHead(cell);
+		move(body, 100000);
+		long before = threads.getThreadAllocatedBytes(thread);
+		long sum = move(body, 1000000);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		assertTrue(sum != 0);
+		/* Less than a byte a move is the noise of the measurement */
+		assertTrue(allocated + " bytes allocated", allocated < 1000000);
+	}
+
+	private static long move(SnakeBody body, int moves) {
+		long sum = 0;
+		for (int i = 0; i < moves; i++) {
+			body.addHead(body.getHead() + 1);
+			sum += body.removeTail();
+		}
+		return sum;
+	}
+
+	/* The body holds the cells from the tail to the head in order */
+	private static void assertOrder(SnakeBody body, int tail, int head) {
+		assertEquals(head - tail + 1, body.size());
+		for (int i = 0; i < body.size(); i++)
+			assertEquals(tail + i, body.get(i));
+		assertEquals(tail, body.getTail());
+		assertEquals(head, body.getHead());
+	}
+}